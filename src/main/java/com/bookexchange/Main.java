@@ -5,10 +5,6 @@ import com.bookexchange.ui.LoginFrame;
 
 import javax.swing.*;
 import java.io.File;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
-import java.sql.Statement;
 
 public class Main {
     public static void main(String[] args) {
@@ -37,10 +33,6 @@ public class Main {
             System.out.println("DB Port: " + configManager.getProperty(ConfigManager.DB_PORT));
             System.out.println("DB Name: " + configManager.getProperty(ConfigManager.DB_NAME));
             System.out.println("DB User: " + configManager.getProperty(ConfigManager.DB_USER));
-
-            // Check and create database if needed
-            checkDatabase();
-
         } catch (Exception e) {
             System.err.println("Error initializing configuration: " + e.getMessage());
             e.printStackTrace();
@@ -65,39 +57,4 @@ public class Main {
             }
         });
     }
-
-    private static void checkDatabase() {
-        ConfigManager config = ConfigManager.getInstance();
-        String dbType = config.getProperty(ConfigManager.DB_TYPE);
-
-        if ("mysql".equals(dbType)) {
-            try {
-                // Load MySQL driver
-                Class.forName("com.mysql.cj.jdbc.Driver");
-
-                String host = config.getProperty(ConfigManager.DB_HOST);
-                String port = config.getProperty(ConfigManager.DB_PORT);
-                String user = config.getProperty(ConfigManager.DB_USER);
-                String password = config.getProperty(ConfigManager.DB_PASSWORD);
-                String dbName = config.getProperty(ConfigManager.DB_NAME);
-
-                // Connect to MySQL server (without database)
-                String url = "jdbc:mysql://" + host + ":" + port;
-                System.out.println("Checking MySQL database: " + url);
-
-                try (Connection conn = DriverManager.getConnection(url, user, password)) {
-                    try (Statement stmt = conn.createStatement()) {
-                        // Create database if it doesn't exist
-                        System.out.println("Creating database if not exists: " + dbName);
-                        stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS " + dbName);
-                    }
-                }
-
-                System.out.println("Database check completed successfully");
-            } catch (ClassNotFoundException | SQLException e) {
-                System.err.println("Error checking database: " + e.getMessage());
-                e.printStackTrace();
-            }
-        }
-    }
 }
@@ -15,6 +15,64 @@ public class ConfigManager {
     public static final String DB_USER = "db.user";
     public static final String DB_PASSWORD = "db.password";
 
+    // MySQL connection pool
+    public static final String DB_POOL_MAX_SIZE = "db.pool.maxSize";
+    public static final String DB_POOL_MIN_IDLE = "db.pool.minIdle";
+    public static final String DB_POOL_IDLE_TIMEOUT_MS = "db.pool.idleTimeoutMs";
+    public static final String DB_POOL_MAX_LIFETIME_MS = "db.pool.maxLifetimeMs";
+    public static final String DB_POOL_BORROW_TIMEOUT_MS = "db.pool.borrowTimeoutMs";
+    public static final String DB_STATEMENT_CACHE_SIZE = "db.statementCache.size";
+    // Rows (MySQL) or documents (MongoDB) fetched per round trip by streaming reads
+    public static final String DB_FETCH_SIZE = "db.fetchSize";
+    // Rows per chunk for bulk inserts
+    public static final String DB_BATCH_SIZE = "db.batchSize";
+
+    // MySQL read replicas as comma separated host:port pairs; empty sends everything to the primary
+    public static final String DB_REPLICAS = "db.replicas";
+    public static final String DB_REPLICA_MAX_LAG_SECONDS = "db.replica.maxLagSeconds";
+    // Reads stay on the primary this long after a write so users see their own changes
+    public static final String DB_REPLICA_STICKY_MS = "db.replica.stickyMs";
+    public static final String DB_REPLICA_HEALTH_INTERVAL_MS = "db.replica.healthIntervalMs";
+
+    // Background database calls: how many may run at once and how long each may take
+    public static final String DB_ASYNC_MAX_CONCURRENCY = "db.async.maxConcurrency";
+    public static final String DB_ASYNC_TIMEOUT_MS = "db.async.timeoutMs";
+
+    // In-memory read cache in front of either backend; set enabled to false to read straight through
+    public static final String DB_CACHE_ENABLED = "db.cache.enabled";
+    public static final String DB_CACHE_MAX_SIZE = "db.cache.maxSize";
+    public static final String DB_CACHE_TTL_MS = "db.cache.ttlMs";
+
+    // MongoDB client; unset keys keep the driver defaults
+    public static final String DB_MONGO_POOL_MAX_SIZE = "db.mongo.pool.maxSize";
+    public static final String DB_MONGO_POOL_MIN_SIZE = "db.mongo.pool.minSize";
+    public static final String DB_MONGO_POOL_MAX_IDLE_MS = "db.mongo.pool.maxIdleMs";
+    // How long an operation waits for a pooled connection
+    public static final String DB_MONGO_POOL_MAX_WAIT_MS = "db.mongo.pool.maxWaitMs";
+    public static final String DB_MONGO_CONNECT_TIMEOUT_MS = "db.mongo.connectTimeoutMs";
+    public static final String DB_MONGO_READ_TIMEOUT_MS = "db.mongo.readTimeoutMs";
+    public static final String DB_MONGO_SERVER_SELECTION_TIMEOUT_MS = "db.mongo.serverSelectionTimeoutMs";
+    // Comma separated, in order of preference: zstd, snappy, zlib
+    public static final String DB_MONGO_COMPRESSORS = "db.mongo.compressors";
+    // primary, primaryPreferred, secondary, secondaryPreferred or nearest
+    public static final String DB_MONGO_READ_PREFERENCE = "db.mongo.readPreference";
+    public static final String DB_MONGO_REPORTS_READ_PREFERENCE = "db.mongo.reports.readPreference";
+    // majority, a node count or a named concern such as acknowledged
+    public static final String DB_MONGO_WRITE_CONCERN = "db.mongo.writeConcern";
+    public static final String DB_MONGO_EXCHANGE_WRITE_CONCERN = "db.mongo.exchanges.writeConcern";
+    // Copies owner names and book titles into the documents that show them; reads then skip the joins
+    public static final String DB_MONGO_DENORMALIZED = "db.mongo.denormalized";
+    // How often the copies are checked against their sources; 0 checks only when connecting
+    public static final String DB_MONGO_DENORMALIZED_CHECK_INTERVAL_MS = "db.mongo.denormalized.checkIntervalMs";
+
+    // Embedded backend; the directory holds the write-ahead log and snapshots
+    public static final String DB_EMBEDDED_DIR = "db.embedded.dir";
+    // A snapshot is taken once this much log has been written, which bounds the replay at startup
+    public static final String DB_EMBEDDED_SNAPSHOT_THRESHOLD_BYTES = "db.embedded.snapshotThresholdBytes";
+    public static final String DB_EMBEDDED_SNAPSHOT_INTERVAL_MS = "db.embedded.snapshotIntervalMs";
+    // How long a commit waits for more writes to share its fsync; 0 batches only what queues up meanwhile
+    public static final String DB_EMBEDDED_GROUP_COMMIT_MS = "db.embedded.groupCommitMs";
+
     private ConfigManager() {
         properties = new Properties();
         loadConfig();
@@ -56,7 +114,7 @@ public class ConfigManager {
 
         // Check if db.type is set and valid
         String dbType = properties.getProperty(DB_TYPE);
-        if (dbType == null || dbType.isEmpty() || (!dbType.equals("mysql") && !dbType.equals("mongodb"))) {
+        if (dbType == null || dbType.isEmpty() || (!dbType.equals("mysql") && !dbType.equals("mongodb") && !dbType.equals("memory") && !dbType.equals("embedded"))) {
             properties.setProperty(DB_TYPE, "mysql"); // Default to MySQL
             modified = true;
         }
@@ -121,6 +179,32 @@ public class ConfigManager {
         return properties.getProperty(key);
     }
 
+    public int getIntProperty(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public long getLongProperty(String key, long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number for " + key + ": " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     public void setProperty(String key, String value) {
         properties.setProperty(key, value);
     }
@@ -132,4 +216,12 @@ public class ConfigManager {
     public boolean isMySQL() {
         return "mysql".equals(properties.getProperty(DB_TYPE));
     }
+
+    public boolean isMemory() {
+        return "memory".equals(properties.getProperty(DB_TYPE));
+    }
+
+    public boolean isEmbedded() {
+        return "embedded".equals(properties.getProperty(DB_TYPE));
+    }
 }
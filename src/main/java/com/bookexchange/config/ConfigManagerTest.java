@@ -96,9 +96,22 @@ public class ConfigManagerTest {
         assertTrue(configManager.isMongoDB());
         assertFalse(configManager.isMySQL());
 
+        // Test in-memory
+        configManager.setProperty(ConfigManager.DB_TYPE, "memory");
+        assertTrue(configManager.isMemory());
+        assertFalse(configManager.isMySQL());
+        assertFalse(configManager.isMongoDB());
+
+        // Test embedded
+        configManager.setProperty(ConfigManager.DB_TYPE, "embedded");
+        assertTrue(configManager.isEmbedded());
+        assertFalse(configManager.isMemory());
+
         // Test invalid type
         configManager.setProperty(ConfigManager.DB_TYPE, "invalid");
         assertFalse(configManager.isMySQL());
         assertFalse(configManager.isMongoDB());
+        assertFalse(configManager.isMemory());
+        assertFalse(configManager.isEmbedded());
     }
 }
@@ -0,0 +1,166 @@
+package com.bookexchange.db;
+
+import com.bookexchange.config.ConfigManager;
+import com.bookexchange.model.Book;
+import com.bookexchange.model.Exchange;
+import com.bookexchange.model.SystemStats;
+import com.bookexchange.model.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Runs DatabaseManager calls on virtual threads so callers, like the Swing event thread, never block on the database
+public class AsyncDatabaseManager {
+    private final DatabaseManager delegate;
+    private final ExecutorService executor;
+    // Caps the calls in flight against the backend, e.g. to the size of the MySQL connection pool
+    private final Semaphore permits;
+    private final long timeoutMillis;
+
+    public AsyncDatabaseManager(DatabaseManager delegate) {
+        this(delegate,
+                ConfigManager.getInstance().getIntProperty(ConfigManager.DB_ASYNC_MAX_CONCURRENCY,
+                        ConfigManager.getInstance().getIntProperty(ConfigManager.DB_POOL_MAX_SIZE, 10)),
+                ConfigManager.getInstance().getLongProperty(ConfigManager.DB_ASYNC_TIMEOUT_MS, 30000));
+    }
+
+    public AsyncDatabaseManager(DatabaseManager delegate, int maxConcurrency, long timeoutMillis) {
+        this.delegate = delegate;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.permits = new Semaphore(Math.max(1, maxConcurrency), true);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public DatabaseManager getDelegate() {
+        return delegate;
+    }
+
+    // Cancelling the returned future, or letting it time out, interrupts the call whether it is queued or running
+    public <T> CompletableFuture<T> submit(Function<DatabaseManager, T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                result.completeExceptionally(new CancellationException("Cancelled before it started"));
+                return;
+            }
+            try {
+                if (!result.isDone()) {
+                    result.complete(call.apply(delegate));
+                }
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                permits.release();
+            }
+        });
+
+        result.whenComplete((value, error) -> {
+            if (error != null) {
+                task.cancel(true);
+            }
+        });
+        return timeoutMillis > 0 ? result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS) : result;
+    }
+
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public CompletableFuture<Boolean> authenticateUser(String username, String password) {
+        return submit(db -> db.authenticateUser(username, password));
+    }
+
+    public CompletableFuture<User> getUserByUsername(String username) {
+        return submit(db -> db.getUserByUsername(username));
+    }
+
+    public CompletableFuture<Boolean> registerUser(User user) {
+        return submit(db -> db.registerUser(user));
+    }
+
+    public CompletableFuture<Boolean> updateUser(User user) {
+        return submit(db -> db.updateUser(user));
+    }
+
+    public CompletableFuture<List<Book>> getAllBooks() {
+        return submit(DatabaseManager::getAllBooks);
+    }
+
+    public CompletableFuture<Book> getBookById(String bookId) {
+        return submit(db -> db.getBookById(bookId));
+    }
+
+    public CompletableFuture<List<Book>> getBooksByIds(Collection<String> bookIds) {
+        return submit(db -> db.getBooksByIds(bookIds));
+    }
+
+    public CompletableFuture<List<Book>> getBooksByUser(String username) {
+        return submit(db -> db.getBooksByUser(username));
+    }
+
+    public CompletableFuture<List<Book>> getAvailableBooksPage(String afterBookId, int pageSize, String excludeOwnerId) {
+        return submit(db -> db.getAvailableBooksPage(afterBookId, pageSize, excludeOwnerId));
+    }
+
+    public CompletableFuture<Boolean> addBook(Book book) {
+        return submit(db -> db.addBook(book));
+    }
+
+    public CompletableFuture<BulkInsertResult> addBooks(List<Book> books) {
+        return submit(db -> db.addBooks(books));
+    }
+
+    public CompletableFuture<Boolean> updateBook(Book book) {
+        return submit(db -> db.updateBook(book));
+    }
+
+    public CompletableFuture<Boolean> deleteBook(String bookId) {
+        return submit(db -> db.deleteBook(bookId));
+    }
+
+    public CompletableFuture<List<Exchange>> getExchangesByUser(String username) {
+        return submit(db -> db.getExchangesByUser(username));
+    }
+
+    public CompletableFuture<List<Exchange>> getExchangesByUser(String username, String status, int limit) {
+        return submit(db -> db.getExchangesByUser(username, status, limit));
+    }
+
+    public CompletableFuture<Exchange> getExchangeById(String exchangeId) {
+        return submit(db -> db.getExchangeById(exchangeId));
+    }
+
+    public CompletableFuture<ExchangeResult> createExchange(Exchange exchange) {
+        return submit(db -> db.createExchange(exchange));
+    }
+
+    public CompletableFuture<Boolean> updateExchangeStatus(String exchangeId, String status) {
+        return submit(db -> db.updateExchangeStatus(exchangeId, status));
+    }
+
+    public CompletableFuture<List<Book>> getMostExchangedBooks(int limit) {
+        return submit(db -> db.getMostExchangedBooks(limit));
+    }
+
+    public CompletableFuture<List<User>> getMostActiveUsers(int limit) {
+        return submit(db -> db.getMostActiveUsers(limit));
+    }
+
+    public CompletableFuture<SystemStats> getSystemStats() {
+        return submit(DatabaseManager::getSystemStats);
+    }
+
+    public CompletableFuture<SystemStats> reconcileSystemStats() {
+        return submit(DatabaseManager::reconcileSystemStats);
+    }
+}
@@ -0,0 +1,41 @@
+package com.bookexchange.db;
+
+import com.bookexchange.model.Book;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.codecs.DecoderContext;
+
+public class BookCodec extends ModelCodec<Book> {
+
+    @Override
+    public Book decode(BsonReader reader, DecoderContext decoderContext) {
+        Book book = new Book();
+        book.setAvailable(true);
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id": book.setId(readId(reader)); break;
+                case "title": book.setTitle(readString(reader)); break;
+                case "author": book.setAuthor(readString(reader)); break;
+                case "isbn": book.setIsbn(readString(reader)); break;
+                case "description": book.setDescription(readString(reader)); break;
+                case "condition": book.setCondition(readString(reader)); break;
+                case "ownerId": book.setOwnerId(readId(reader)); break;
+                // Joined or denormalized by the query
+                case "ownerName": book.setOwnerName(readString(reader)); break;
+                case "available": book.setAvailable(readBoolean(reader, true)); break;
+                case "exchangeCount": book.setExchangeCount(readInt(reader)); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.readEndDocument();
+
+        return book;
+    }
+
+    @Override
+    public Class<Book> getEncoderClass() {
+        return Book.class;
+    }
+}
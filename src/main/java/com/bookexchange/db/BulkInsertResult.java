@@ -0,0 +1,36 @@
+package com.bookexchange.db;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class BulkInsertResult {
+    private int insertedCount;
+    // Position in the submitted list -> reason the row was rejected
+    private final Map<Integer, String> failures = new TreeMap<>();
+
+    public int getInsertedCount() {
+        return insertedCount;
+    }
+
+    public void addInserted(int count) {
+        insertedCount += count;
+    }
+
+    public Map<Integer, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public void addFailure(int index, String reason) {
+        failures.put(index, reason);
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return insertedCount + " inserted, " + failures.size() + " failed";
+    }
+}
@@ -0,0 +1,429 @@
+package com.bookexchange.db;
+
+import com.bookexchange.model.Book;
+import com.bookexchange.model.Exchange;
+import com.bookexchange.model.SystemStats;
+import com.bookexchange.model.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Serves repeated reads from memory and evicts exactly what each write changes. Callers always get their own
+// copies, so editing a returned object never changes what the cache holds
+public class CachingDatabaseManager implements DatabaseManager {
+    private static final String ALL_BOOKS = "all";
+    private static final String STATS = "stats";
+
+    private final DatabaseManager delegate;
+    private final TtlCache<String, User> users;
+    private final TtlCache<String, Book> booksById;
+    // Whole catalog and catalog pages, keyed by "all" or the page arguments
+    private final TtlCache<String, List<Book>> catalog;
+    private final TtlCache<String, List<Book>> booksByUser;
+    // Keyed by "username|status|limit"
+    private final TtlCache<String, List<Exchange>> exchangesByUser;
+    private final TtlCache<String, Exchange> exchangesById;
+    private final TtlCache<String, Object> reports;
+    private final List<TtlCache<?, ?>> caches = new ArrayList<>();
+    // Learned from the rows we read, so a write that only carries user ids can evict by username
+    private final Map<String, String> usernamesById = new ConcurrentHashMap<>();
+
+    public CachingDatabaseManager(DatabaseManager delegate, int maxSize, long ttlMillis) {
+        this.delegate = delegate;
+        users = register(new TtlCache<>("users", maxSize, ttlMillis));
+        booksById = register(new TtlCache<>("booksById", maxSize, ttlMillis));
+        catalog = register(new TtlCache<>("catalog", maxSize, ttlMillis));
+        booksByUser = register(new TtlCache<>("booksByUser", maxSize, ttlMillis));
+        exchangesByUser = register(new TtlCache<>("exchangesByUser", maxSize, ttlMillis));
+        exchangesById = register(new TtlCache<>("exchangesById", maxSize, ttlMillis));
+        reports = register(new TtlCache<>("reports", maxSize, ttlMillis));
+    }
+
+    private <K, V> TtlCache<K, V> register(TtlCache<K, V> cache) {
+        caches.add(cache);
+        return cache;
+    }
+
+    public long getCacheHits() {
+        long hits = 0;
+        for (TtlCache<?, ?> cache : caches) {
+            hits += cache.getHits();
+        }
+        return hits;
+    }
+
+    public long getCacheMisses() {
+        long misses = 0;
+        for (TtlCache<?, ?> cache : caches) {
+            misses += cache.getMisses();
+        }
+        return misses;
+    }
+
+    public long getCacheEvictions() {
+        long evictions = 0;
+        for (TtlCache<?, ?> cache : caches) {
+            evictions += cache.getEvictions();
+        }
+        return evictions;
+    }
+
+    // One line per cache with its size and counters
+    public List<String> getCacheStatistics() {
+        List<String> statistics = new ArrayList<>();
+        for (TtlCache<?, ?> cache : caches) {
+            statistics.add(cache.toString());
+        }
+        return statistics;
+    }
+
+    public void clearCaches() {
+        for (TtlCache<?, ?> cache : caches) {
+            cache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void connect() {
+        delegate.connect();
+    }
+
+    @Override
+    public void disconnect() {
+        for (String line : getCacheStatistics()) {
+            System.out.println("Cache " + line);
+        }
+        clearCaches();
+        delegate.disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    // Passwords are always checked against the database
+    @Override
+    public boolean authenticateUser(String username, String password) {
+        return delegate.authenticateUser(username, password);
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        User user = users.get(username, delegate::getUserByUsername);
+        if (user == null) {
+            return null;
+        }
+        usernamesById.put(user.getId(), user.getUsername());
+        return new User(user);
+    }
+
+    @Override
+    public boolean registerUser(User user) {
+        boolean registered = delegate.registerUser(user);
+        users.invalidate(user.getUsername());
+        reports.invalidate(STATS);
+        return registered;
+    }
+
+    @Override
+    public boolean updateUser(User user) {
+        boolean updated = delegate.updateUser(user);
+        users.invalidate(user.getUsername());
+        // Full names show up in the active users report
+        reports.invalidateAll();
+        return updated;
+    }
+
+    @Override
+    public List<Book> getAllBooks() {
+        return copyBooks(rememberOwners(catalog.get(ALL_BOOKS, key -> delegate.getAllBooks())));
+    }
+
+    @Override
+    public Book getBookById(String bookId) {
+        Book book = booksById.get(bookId, delegate::getBookById);
+        if (book == null) {
+            return null;
+        }
+        rememberOwner(book);
+        return new Book(book);
+    }
+
+    @Override
+    public List<Book> getBooksByIds(Collection<String> bookIds) {
+        Map<String, Book> found = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String bookId : bookIds) {
+            Book book = booksById.get(bookId);
+            if (book != null) {
+                found.put(bookId, book);
+            } else if (!missing.contains(bookId)) {
+                missing.add(bookId);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            for (Book book : rememberOwners(delegate.getBooksByIds(missing))) {
+                booksById.put(book.getId(), book);
+                found.put(book.getId(), book);
+            }
+        }
+
+        List<Book> books = new ArrayList<>();
+        for (String bookId : bookIds) {
+            Book book = found.remove(bookId);
+            if (book != null) {
+                books.add(new Book(book));
+            }
+        }
+        return books;
+    }
+
+    @Override
+    public List<Book> getBooksByUser(String username) {
+        return copyBooks(rememberOwners(booksByUser.get(username, delegate::getBooksByUser)));
+    }
+
+    // Streams exist to avoid holding whole result sets, so they always go to the database
+    @Override
+    public void streamAllBooks(Consumer<Book> consumer) {
+        delegate.streamAllBooks(consumer);
+    }
+
+    @Override
+    public void streamBooksByUser(String username, Consumer<Book> consumer) {
+        delegate.streamBooksByUser(username, consumer);
+    }
+
+    @Override
+    public List<Book> getAvailableBooksPage(String afterBookId, int pageSize, String excludeOwnerId) {
+        String key = "page|" + afterBookId + "|" + pageSize + "|" + excludeOwnerId;
+        return copyBooks(rememberOwners(catalog.get(key,
+                k -> delegate.getAvailableBooksPage(afterBookId, pageSize, excludeOwnerId))));
+    }
+
+    @Override
+    public boolean addBook(Book book) {
+        boolean added = delegate.addBook(book);
+        bookChanged(null, book.getOwnerId());
+        reports.invalidate(STATS);
+        return added;
+    }
+
+    @Override
+    public BulkInsertResult addBooks(List<Book> books) {
+        BulkInsertResult result = delegate.addBooks(books);
+        catalog.invalidateAll();
+        for (Book book : books) {
+            evictBooksOfOwner(book.getOwnerId());
+        }
+        reports.invalidate(STATS);
+        return result;
+    }
+
+    // Evicts even when the update fails, the write may still have reached the database
+    @Override
+    public boolean updateBook(Book book) {
+        boolean updated = delegate.updateBook(book);
+        bookChanged(book.getId(), book.getOwnerId());
+        // Titles show up in the most exchanged books report
+        reports.invalidateAll();
+        return updated;
+    }
+
+    @Override
+    public boolean deleteBook(String bookId) {
+        Book cached = booksById.get(bookId);
+        boolean deleted = delegate.deleteBook(bookId);
+        bookChanged(bookId, cached != null ? cached.getOwnerId() : null);
+        reports.invalidateAll();
+        return deleted;
+    }
+
+    @Override
+    public List<Exchange> getExchangesByUser(String username) {
+        return getExchangesByUser(username, null, 0);
+    }
+
+    @Override
+    public List<Exchange> getExchangesByUser(String username, String status, int limit) {
+        String key = username + "|" + status + "|" + limit;
+        List<Exchange> exchanges = exchangesByUser.get(key, k -> delegate.getExchangesByUser(username, status, limit));
+        List<Exchange> copies = new ArrayList<>();
+        for (Exchange exchange : exchanges) {
+            rememberParticipants(exchange);
+            copies.add(new Exchange(exchange));
+        }
+        return copies;
+    }
+
+    @Override
+    public void streamExchangesByUser(String username, Consumer<Exchange> consumer) {
+        delegate.streamExchangesByUser(username, consumer);
+    }
+
+    @Override
+    public Exchange getExchangeById(String exchangeId) {
+        Exchange exchange = exchangesById.get(exchangeId, delegate::getExchangeById);
+        if (exchange == null) {
+            return null;
+        }
+        rememberParticipants(exchange);
+        return new Exchange(exchange);
+    }
+
+    @Override
+    public ExchangeResult createExchange(Exchange exchange) {
+        ExchangeResult result = delegate.createExchange(exchange);
+        if (result != ExchangeResult.FAILED) {
+            // ALREADY_TAKEN means our cached view of the book was stale as well
+            exchangeChanged(null, exchange.getBookId(), exchange.getProviderId(),
+                    usernamesById.get(exchange.getRequesterId()), usernamesById.get(exchange.getProviderId()));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean updateExchangeStatus(String exchangeId, String status) {
+        // The row tells us whose lists to evict; usually it is cached from the details view
+        Exchange exchange = getExchangeById(exchangeId);
+        boolean updated = delegate.updateExchangeStatus(exchangeId, status);
+        if (exchange != null) {
+            exchangeChanged(exchangeId, exchange.getBookId(), exchange.getProviderId(),
+                    exchange.getRequesterName(), exchange.getProviderName());
+        } else {
+            exchangeChanged(exchangeId, null, null, null, null);
+        }
+        return updated;
+    }
+
+    @Override
+    public List<Book> getMostExchangedBooks(int limit) {
+        return copyBooks(cachedReport("mostExchangedBooks|" + limit, () -> delegate.getMostExchangedBooks(limit)));
+    }
+
+    @Override
+    public List<User> getMostActiveUsers(int limit) {
+        List<User> users = cachedReport("mostActiveUsers|" + limit, () -> delegate.getMostActiveUsers(limit));
+        List<User> copies = new ArrayList<>();
+        for (User user : users) {
+            copies.add(new User(user));
+        }
+        return copies;
+    }
+
+    @Override
+    public int getTotalExchanges() {
+        return getSystemStats().getTotalExchanges();
+    }
+
+    @Override
+    public int getTotalBooks() {
+        return getSystemStats().getTotalBooks();
+    }
+
+    @Override
+    public int getTotalUsers() {
+        return getSystemStats().getTotalUsers();
+    }
+
+    @Override
+    public SystemStats getSystemStats() {
+        return new SystemStats(cachedReport(STATS, delegate::getSystemStats));
+    }
+
+    @Override
+    public SystemStats reconcileSystemStats() {
+        SystemStats stats = delegate.reconcileSystemStats();
+        reports.invalidate(STATS);
+        reports.put(STATS, new SystemStats(stats));
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cachedReport(String key, Supplier<T> loader) {
+        return (T) reports.get(key, k -> loader.get());
+    }
+
+    private void bookChanged(String bookId, String ownerId) {
+        if (bookId != null) {
+            booksById.invalidate(bookId);
+        }
+        catalog.invalidateAll();
+        evictBooksOfOwner(ownerId);
+    }
+
+    private void exchangeChanged(String exchangeId, String bookId, String providerId,
+                                 String requesterName, String providerName) {
+        if (exchangeId != null) {
+            exchangesById.invalidate(exchangeId);
+        }
+        evictExchangesOf(requesterName);
+        evictExchangesOf(providerName);
+
+        // Requests and cancellations flip the book's availability
+        if (bookId != null) {
+            bookChanged(bookId, providerId);
+        } else {
+            booksById.invalidateAll();
+            catalog.invalidateAll();
+            booksByUser.invalidateAll();
+        }
+        reports.invalidateAll();
+    }
+
+    private void evictBooksOfOwner(String ownerId) {
+        String username = ownerId != null ? usernamesById.get(ownerId) : null;
+        if (username != null) {
+            booksByUser.invalidate(username);
+        } else {
+            booksByUser.invalidateAll();
+        }
+    }
+
+    private void evictExchangesOf(String username) {
+        if (username == null) {
+            exchangesByUser.invalidateAll();
+            return;
+        }
+        String prefix = username + "|";
+        exchangesByUser.invalidateIf(key -> key.startsWith(prefix));
+    }
+
+    private static List<Book> copyBooks(List<Book> books) {
+        List<Book> copies = new ArrayList<>();
+        for (Book book : books) {
+            copies.add(new Book(book));
+        }
+        return copies;
+    }
+
+    private List<Book> rememberOwners(List<Book> books) {
+        for (Book book : books) {
+            rememberOwner(book);
+        }
+        return books;
+    }
+
+    private void rememberOwner(Book book) {
+        if (book.getOwnerId() != null && book.getOwnerName() != null) {
+            usernamesById.put(book.getOwnerId(), book.getOwnerName());
+        }
+    }
+
+    private void rememberParticipants(Exchange exchange) {
+        if (exchange.getRequesterId() != null && exchange.getRequesterName() != null) {
+            usernamesById.put(exchange.getRequesterId(), exchange.getRequesterName());
+        }
+        if (exchange.getProviderId() != null && exchange.getProviderName() != null) {
+            usernamesById.put(exchange.getProviderId(), exchange.getProviderName());
+        }
+    }
+}
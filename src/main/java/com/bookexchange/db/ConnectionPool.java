@@ -0,0 +1,385 @@
+package com.bookexchange.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ConnectionPool {
+    // Connections used within this window are handed out without a validation ping
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final long HOUSEKEEPING_INTERVAL_MILLIS = 30000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final int minIdle;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final long borrowTimeoutMillis;
+    private final int statementCacheSize;
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    // Idle connections, most recently returned first
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    // One permit per connection that may be handed out
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private boolean housekeeping;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String user, String password, int maxSize, int minIdle,
+                          long idleTimeoutMillis, long maxLifetimeMillis, long borrowTimeoutMillis,
+                          int statementCacheSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, maxSize);
+        this.minIdle = Math.max(0, Math.min(minIdle, this.maxSize));
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(this.maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Opens the initial idle connections and starts housekeeping; fails fast if the database is unreachable
+    public synchronized void start() throws SQLException {
+        for (int i = 0; i < Math.max(1, minIdle); i++) {
+            idleConnections.offerFirst(new PooledConnection(DriverManager.getConnection(url, user, password)));
+        }
+        if (!housekeeping) {
+            housekeeping = true;
+            housekeeper.scheduleWithFixedDelay(this::evictAndRefill,
+                    HOUSEKEEPING_INTERVAL_MILLIS, HOUSEKEEPING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Borrows a connection; closing the returned connection hands it back to the pool
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis +
+                        " ms waiting for a database connection (pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idleConnections.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled.borrow();
+                }
+                pooled.closeQuietly();
+                if (System.currentTimeMillis() > deadline) {
+                    throw new SQLTimeoutException("Timed out while validating pooled connections");
+                }
+            }
+
+            // No healthy idle connection, open a new one within our permit
+            pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+            return pooled.borrow();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (now - pooled.createdAt > maxLifetimeMillis) {
+            return false;
+        }
+        if (now - pooled.lastUsedAt <= VALIDATION_BYPASS_MILLIS) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled, boolean broken) {
+        try {
+            if (broken || closed || System.currentTimeMillis() - pooled.createdAt > maxLifetimeMillis) {
+                pooled.closeQuietly();
+            } else if (!resetState(pooled)) {
+                pooled.closeQuietly();
+            } else {
+                pooled.lastUsedAt = System.currentTimeMillis();
+                idleConnections.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Undoes anything a borrower may have left behind so the next borrower starts clean
+    private boolean resetState(PooledConnection pooled) {
+        try {
+            if (pooled.connection.isClosed()) {
+                return false;
+            }
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            if (pooled.connection.isReadOnly()) {
+                pooled.connection.setReadOnly(false);
+            }
+            pooled.statementCache.releaseAll();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void evictAndRefill() {
+        if (closed) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int idleCount = idleConnections.size();
+        // Oldest returned connections sit at the tail of the deque
+        for (PooledConnection pooled : idleConnections.toArray(new PooledConnection[0])) {
+            // Take it out first so nobody borrows it while it is being checked
+            if (!idleConnections.remove(pooled)) {
+                continue;
+            }
+
+            boolean expired = now - pooled.createdAt > maxLifetimeMillis;
+            boolean idleTooLong = now - pooled.lastUsedAt > idleTimeoutMillis && idleCount > minIdle;
+            if (expired || idleTooLong || !isUsable(pooled)) {
+                pooled.closeQuietly();
+                idleCount--;
+            } else {
+                idleConnections.offerLast(pooled);
+            }
+        }
+
+        // Keep minIdle connections warm without exceeding maxSize in total. Each new connection is opened
+        // under a permit, like a borrower's, so racing borrowers cannot push the pool past maxSize
+        while (!closed && idleConnections.size() < minIdle) {
+            if (!permits.tryAcquire()) {
+                break;
+            }
+            try {
+                if (idleConnections.size() + getActiveCount() > maxSize) {
+                    break;
+                }
+                idleConnections.offerLast(new PooledConnection(DriverManager.getConnection(url, user, password)));
+            } catch (SQLException e) {
+                System.err.println("Error refilling connection pool: " + e.getMessage());
+                break;
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            pooled.closeQuietly();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    public int getIdleCount() {
+        return idleConnections.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    private class PooledConnection {
+        private final Connection connection;
+        private final StatementCache statementCache;
+        private final long createdAt;
+        private volatile long lastUsedAt;
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statementCache = new StatementCache(connection, statementCacheSize,
+                    statementCacheHits, statementCacheMisses);
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsedAt = createdAt;
+        }
+
+        Connection borrow() {
+            return (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new BorrowedConnectionHandler(this));
+        }
+
+        void closeQuietly() {
+            statementCache.close();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // Connection is being discarded anyway
+            }
+        }
+    }
+
+    // Forwards calls to the physical connection until the borrower closes it
+    private class BorrowedConnectionHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+        private boolean broken;
+
+        BorrowedConnectionHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled, broken);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.connection.isClosed();
+                case "prepareStatement":
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+                    if (args.length == 1) {
+                        try {
+                            return watch(pooled.statementCache.prepare((String) args[0]), PreparedStatement.class, proxy);
+                        } catch (SQLException e) {
+                            markBrokenOnLinkFailure(e);
+                            throw e;
+                        }
+                    }
+                    break;
+                case "unwrap":
+                case "isWrapperFor":
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.connection;
+                default:
+                    if (returned) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+            }
+
+            Object result;
+            try {
+                result = method.invoke(pooled.connection, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException sqlException) {
+                    markBrokenOnLinkFailure(sqlException);
+                }
+                throw cause;
+            }
+
+            if (result instanceof CallableStatement) {
+                return watch(result, CallableStatement.class, proxy);
+            } else if (result instanceof PreparedStatement) {
+                return watch(result, PreparedStatement.class, proxy);
+            } else if (result instanceof Statement) {
+                return watch(result, Statement.class, proxy);
+            }
+            return result;
+        }
+
+        // Most link failures surface while a statement executes or a result set fetches, not in a
+        // Connection method, so statements and their result sets report failures here too
+        private Object watch(Object target, Class<?> type, Object owner) {
+            return Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[]{type},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "getConnection":
+                            case "getStatement":
+                                return owner;
+                            default:
+                                break;
+                        }
+
+                        Object result;
+                        try {
+                            result = method.invoke(target, args);
+                        } catch (InvocationTargetException e) {
+                            Throwable cause = e.getCause();
+                            if (cause instanceof SQLException sqlException) {
+                                markBrokenOnLinkFailure(sqlException);
+                            }
+                            throw cause;
+                        }
+                        return result instanceof ResultSet ? watch(result, ResultSet.class, proxy) : result;
+                    });
+        }
+
+        // SQLState class 08 means the link itself failed; never reuse such a connection
+        private void markBrokenOnLinkFailure(SQLException e) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+                broken = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,657 @@
+package com.bookexchange.db;
+
+import com.bookexchange.config.ConfigManager;
+import com.bookexchange.model.Book;
+import com.bookexchange.model.Exchange;
+import com.bookexchange.model.User;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Variable;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import org.bson.RawBsonDocument;
+import org.bson.Document;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Measures the database paths behind the performance work against whatever backend config.properties selects.
+// Usage: DatabaseBenchmark <scenario> [arguments], where the scenarios are
+//   reports [users] [exchange counts, comma separated] [rounds]
+//       most active users report as the exchanges table grows; on MySQL also the old correlated query
+//   catalog [users] [catalog sizes, comma separated]
+//       getAllBooks as the catalog grows; on MongoDB the commands and reply bytes it takes, next to the
+//       old per-book owner lookups
+//   decoding [users] [books] [rounds]
+//       MongoDB only: reply and allocated bytes per book read through the model codecs, next to the
+//       old full Document reads copied by hand
+//   client [threads] [reads per thread]
+//       concurrent getBookById; on MongoDB the pool connections it opens and checks out, so runs with
+//       different -Ddb.mongo.* settings can be compared
+// -Ddb.type=memory (or any other db.* key) overrides the configuration for this run only.
+// Every run seeds its own rows under a run-specific prefix, so point it at a scratch database, not a live one.
+public class DatabaseBenchmark {
+    // getMostActiveUsers before the set-based rewrite, kept to compare against
+    private static final String CORRELATED_MOST_ACTIVE_USERS =
+            "SELECT u.*, " +
+                    "(SELECT COUNT(*) FROM exchanges e WHERE e.requester_id = u.id OR e.provider_id = u.id) as exchange_count " +
+                    "FROM users u " +
+                    "ORDER BY exchange_count DESC " +
+                    "LIMIT ?";
+    private static final int SEED_BATCH_SIZE = 1000;
+    private static final int CORRELATED_QUERY_TIMEOUT_SECONDS = 600;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final ConfigManager config;
+    private final DatabaseManager db;
+    // Sees every command the manager's client and the benchmark's own MongoDB client send
+    private final CommandCounter commands;
+    private final PoolCounter pool;
+    private final String prefix = "bench" + System.currentTimeMillis() + "_";
+    private final Random random = new Random(42);
+    private int bookSequence;
+    private MongoClient mongoClient;
+
+    private DatabaseBenchmark(ConfigManager config, DatabaseManager db, CommandCounter commands, PoolCounter pool) {
+        this.config = config;
+        this.db = db;
+        this.commands = commands;
+        this.pool = pool;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: DatabaseBenchmark reports [users] [exchange counts] [rounds]");
+            System.err.println("       DatabaseBenchmark catalog [users] [catalog sizes]");
+            System.err.println("       DatabaseBenchmark decoding [users] [books] [rounds]");
+            System.err.println("       DatabaseBenchmark client [threads] [reads per thread]");
+            return;
+        }
+
+        ConfigManager config = ConfigManager.getInstance();
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("db.")) {
+                config.setProperty(key, System.getProperty(key));
+            }
+        }
+
+        DatabaseManager db = DatabaseFactory.getDatabaseManager();
+        CommandCounter commands = new CommandCounter();
+        PoolCounter pool = new PoolCounter();
+        if (db instanceof MongoDBManager mongo) {
+            mongo.addClientSettingsCustomizer(settings -> settings.addCommandListener(commands)
+                    .applyToConnectionPoolSettings(poolSettings -> poolSettings.addConnectionPoolListener(pool)));
+        }
+        db.connect();
+        if (!db.isConnected()) {
+            System.err.println("Could not connect to the configured database");
+            return;
+        }
+
+        System.out.println("Backend " + config.getProperty(ConfigManager.DB_TYPE) + ", scenario " + args[0]);
+        DatabaseBenchmark benchmark = new DatabaseBenchmark(config, db, commands, pool);
+        try {
+            switch (args[0]) {
+                case "reports":
+                    benchmark.reports(intArg(args, 1, 1000), sizesArg(args, 2, "10000,100000,1000000"),
+                            intArg(args, 3, 5));
+                    break;
+                case "catalog":
+                    benchmark.catalog(intArg(args, 1, 200), sizesArg(args, 2, "1000,10000"));
+                    break;
+                case "decoding":
+                    benchmark.decoding(intArg(args, 1, 200), intArg(args, 2, 10000), intArg(args, 3, 5));
+                    break;
+                case "client":
+                    benchmark.client(intArg(args, 1, 16), intArg(args, 2, 500));
+                    break;
+                default:
+                    System.err.println("Unknown scenario: " + args[0]);
+            }
+        } finally {
+            if (benchmark.mongoClient != null) {
+                benchmark.mongoClient.close();
+            }
+            db.disconnect();
+        }
+    }
+
+    private static int intArg(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+
+    private static int[] sizesArg(String[] args, int index, String defaultValue) {
+        return Arrays.stream((args.length > index ? args[index] : defaultValue).split(","))
+                .mapToInt(size -> Integer.parseInt(size.trim()))
+                .toArray();
+    }
+
+    // Times the report at each exchange count; the exchanges table only grows between the steps
+    private void reports(int userCount, int[] exchangeCounts, int rounds) throws Exception {
+        List<User> users = seedUsers(userCount);
+        List<Book> books = seedBooks(users, userCount * 2);
+
+        int seeded = 0;
+        for (int target : exchangeCounts) {
+            long start = System.nanoTime();
+            int created = seedExchanges(users, books, target - seeded);
+            seeded += created;
+            report("seed exchanges", created, start);
+            if (seeded < target) {
+                System.out.println("  stopped at " + seeded + " exchanges, this backend can only seed one per available book");
+            }
+
+            System.out.println("With " + db.reconcileSystemStats().getTotalExchanges() + " exchanges in total:");
+            db.getMostActiveUsers(10);
+            List<User> top = time("getMostActiveUsers(10)", rounds, () -> db.getMostActiveUsers(10));
+            if (config.isMySQL()) {
+                List<Integer> correlated = timeCorrelatedMostActiveUsers(10);
+                if (correlated != null) {
+                    List<Integer> counts = new ArrayList<>();
+                    for (User user : top) {
+                        counts.add(user.getExchangeCount());
+                    }
+                    System.out.println("  same counts as the correlated query: " + counts.equals(correlated));
+                }
+            }
+            if (seeded < target) {
+                break;
+            }
+        }
+    }
+
+    // Times getAllBooks at each catalog size; on MongoDB also counts what it sends and receives.
+    // The server-side owner join must stay at the same few commands however large the catalog gets
+    private void catalog(int userCount, int[] catalogSizes) {
+        List<User> users = seedUsers(userCount);
+
+        int seeded = 0;
+        for (int target : catalogSizes) {
+            seeded += seedBooks(users, target - seeded).size();
+            System.out.println("With " + db.getTotalBooks() + " books in the catalog:");
+
+            db.getAllBooks();
+            commands.reset();
+            List<Book> books = time("getAllBooks", 1, db::getAllBooks);
+            if (config.isMongoDB()) {
+                System.out.println("  " + books.size() + " books, " + commands);
+
+                commands.reset();
+                List<Book> before = time("per-book owner lookups (before)", 1, this::getAllBooksWithOwnerLookups);
+                System.out.println("  " + before.size() + " books, " + commands);
+            }
+        }
+    }
+
+    // MongoDBManager.getAllBooks before the owner join moved to the server: one find per book for its owner
+    private List<Book> getAllBooksWithOwnerLookups() {
+        MongoDatabase database = harnessMongo().getDatabase(config.getProperty(ConfigManager.DB_NAME));
+        MongoCollection<Document> booksCollection = database.getCollection("books");
+        MongoCollection<Document> usersCollection = database.getCollection("users");
+
+        List<Book> books = new ArrayList<>();
+        for (Document bookDoc : booksCollection.find(Filters.eq("available", true))) {
+            Book book = toBook(bookDoc);
+            Document ownerDoc = usersCollection.find(Filters.eq("_id", new ObjectId(book.getOwnerId()))).first();
+            if (ownerDoc != null) {
+                book.setOwnerName(ownerDoc.getString("username"));
+            }
+            books.add(book);
+        }
+        return books;
+    }
+
+    // Reads the same books through the manager and through the old full Document reads. Reply bytes and
+    // allocations are measured in separate passes, since sizing the replies allocates as well
+    private void decoding(int userCount, int bookCount, int rounds) {
+        if (!(db instanceof MongoDBManager)) {
+            System.err.println("The decoding scenario needs db.type=mongodb without db.cache.enabled");
+            return;
+        }
+        List<User> users = seedUsers(userCount);
+        List<Book> books = seedBooks(users, bookCount);
+        List<String> sample = new ArrayList<>();
+        for (int i = 0; i < Math.min(1000, books.size()); i++) {
+            sample.add(books.get(random.nextInt(books.size())).getId());
+        }
+        System.out.println("With " + db.getTotalBooks() + " books in the catalog:");
+
+        perRow("getAllBooks", rounds, () -> db.getAllBooks().size());
+        perRow("Document copies (before)", rounds, () -> getAllBookDocuments().size());
+        perRow("getBookById", rounds, () -> {
+            sample.forEach(db::getBookById);
+            return sample.size();
+        });
+        perRow("by id, Document copy (before)", rounds, () -> {
+            sample.forEach(this::getBookDocumentById);
+            return sample.size();
+        });
+    }
+
+    // The operation returns how many books it read
+    private void perRow(String name, int rounds, Supplier<Integer> operation) {
+        operation.get();
+
+        commands.reset();
+        long rows = 0;
+        for (int i = 0; i < rounds; i++) {
+            rows += operation.get();
+        }
+        long replyBytes = commands.replyBytes();
+
+        commands.setSizingReplies(false);
+        long allocatedBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            operation.get();
+        }
+        report(name, rounds, start);
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        commands.setSizingReplies(true);
+
+        System.out.printf("  %d books per round, %.0f reply bytes and %.0f allocated bytes per book%n",
+                rows / rounds, (double) replyBytes / rows, (double) allocated / rows);
+    }
+
+    // MongoDBManager.getAllBooks before the model codecs: every field decoded into a Document, then copied
+    private List<Book> getAllBookDocuments() {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.eq("available", true)));
+        pipeline.addAll(ownerNameStages());
+
+        List<Book> books = new ArrayList<>();
+        for (Document bookDoc : benchmarkBooks().aggregate(pipeline)) {
+            books.add(toBook(bookDoc));
+        }
+        return books;
+    }
+
+    private Book getBookDocumentById(String bookId) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.eq("_id", new ObjectId(bookId))));
+        pipeline.addAll(ownerNameStages());
+
+        Document bookDoc = benchmarkBooks().aggregate(pipeline).first();
+        return bookDoc != null ? toBook(bookDoc) : null;
+    }
+
+    // The owner join MongoDBManager uses, so only the decoding differs
+    private static List<Bson> ownerNameStages() {
+        return Arrays.asList(
+                Aggregates.lookup("users",
+                        List.of(new Variable<>("refId", "$ownerId")),
+                        List.of(Aggregates.match(Filters.expr(
+                                        new Document("$eq", Arrays.asList("$_id", "$$refId")))),
+                                Aggregates.project(Projections.include("username"))),
+                        "_joined_ownerName"),
+                Aggregates.set(new Field<>("ownerName",
+                        new Document("$arrayElemAt", Arrays.asList("$_joined_ownerName.username", 0)))),
+                Aggregates.project(Projections.exclude("_joined_ownerName")));
+    }
+
+    private MongoCollection<Document> benchmarkBooks() {
+        return harnessMongo().getDatabase(config.getProperty(ConfigManager.DB_NAME)).getCollection("books");
+    }
+
+    private static Book toBook(Document bookDoc) {
+        Book book = new Book();
+        book.setId(bookDoc.getObjectId("_id").toString());
+        book.setTitle(bookDoc.getString("title"));
+        book.setAuthor(bookDoc.getString("author"));
+        book.setIsbn(bookDoc.getString("isbn"));
+        book.setDescription(bookDoc.getString("description"));
+        book.setCondition(bookDoc.getString("condition"));
+        book.setOwnerId(bookDoc.getObjectId("ownerId").toString());
+        book.setAvailable(bookDoc.getBoolean("available", true));
+        book.setOwnerName(bookDoc.getString("ownerName"));
+        return book;
+    }
+
+    // Reads books by id from several threads at once. On MongoDB the pool counters show whether the configured
+    // pool size, wait time and the rest took effect; the settings themselves are logged when connecting
+    private void client(int threads, int readsPerThread) throws Exception {
+        List<User> users = seedUsers(50);
+        List<Book> books = seedBooks(users, 1000);
+
+        commands.reset();
+        pool.reset();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                Random threadRandom = new Random(t);
+                results.add(executor.submit(() -> {
+                    int found = 0;
+                    for (int i = 0; i < readsPerThread; i++) {
+                        if (db.getBookById(books.get(threadRandom.nextInt(books.size())).getId()) != null) {
+                            found++;
+                        }
+                    }
+                    return found;
+                }));
+            }
+            int found = 0;
+            for (Future<Integer> result : results) {
+                found += result.get();
+            }
+            report("getBookById on " + threads + " threads", (long) threads * readsPerThread, start);
+            System.out.println("  " + found + " found");
+        } finally {
+            executor.shutdown();
+        }
+        if (db instanceof MongoDBManager) {
+            System.out.println("  " + pool);
+            System.out.println("  " + commands);
+        }
+    }
+
+    private List<User> seedUsers(int count) {
+        long start = System.nanoTime();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String username = prefix + i;
+            db.registerUser(new User(username, "password", username + "@example.com", "Benchmark User " + i,
+                    i + " Benchmark St"));
+            users.add(db.getUserByUsername(username));
+        }
+        report("registerUser", users.size(), start);
+        return users;
+    }
+
+    // Returns the books added by this call with their ids
+    private List<Book> seedBooks(List<User> owners, int count) {
+        long start = System.nanoTime();
+        String batchPrefix = prefix + bookSequence + "_";
+        List<Book> newBooks = new ArrayList<>();
+        for (int i = 0; i < count; i++, bookSequence++) {
+            User owner = owners.get(random.nextInt(owners.size()));
+            newBooks.add(new Book(batchPrefix + "Book " + bookSequence, "Author " + (bookSequence % 500),
+                    String.format("%013d", bookSequence),
+                    "A description long enough to matter on the wire. ".repeat(8), "Good", owner.getId()));
+        }
+        BulkInsertResult inserted = db.addBooks(newBooks);
+        report("addBooks", inserted.getInsertedCount(), start);
+
+        List<Book> books = new ArrayList<>();
+        db.streamAllBooks(book -> {
+            if (book.getTitle() != null && book.getTitle().startsWith(batchPrefix)) {
+                books.add(book);
+            }
+        });
+        return books;
+    }
+
+    // Exchange history is bulk loaded straight into MySQL and MongoDB as cancelled exchanges, which leave
+    // their books available, so the count is not bound by the catalog size. Other backends go through
+    // createExchange and stop once every seeded book is taken. Returns how many were actually created
+    private int seedExchanges(List<User> users, List<Book> books, int count) throws Exception {
+        if (count <= 0) {
+            return 0;
+        }
+        if (config.isMySQL()) {
+            return seedMySQLExchanges(users, books, count);
+        }
+        if (config.isMongoDB()) {
+            return seedMongoExchanges(users, books, count);
+        }
+
+        int created = 0;
+        while (created < count) {
+            List<Book> available = db.getAvailableBooksPage(null, 1, null);
+            if (available.isEmpty()) {
+                break;
+            }
+            Exchange exchange = newExchange(users, available.get(0));
+            if (db.createExchange(exchange) == ExchangeResult.CREATED) {
+                created++;
+            }
+        }
+        return created;
+    }
+
+    private Exchange newExchange(List<User> users, Book book) {
+        Exchange exchange = new Exchange();
+        User requester;
+        do {
+            requester = users.get(random.nextInt(users.size()));
+        } while (users.size() > 1 && requester.getId().equals(book.getOwnerId()));
+        exchange.setRequesterId(requester.getId());
+        exchange.setProviderId(book.getOwnerId());
+        exchange.setBookId(book.getId());
+        exchange.setStatus("CANCELLED");
+        return exchange;
+    }
+
+    // Batched inserts that the driver rewrites into multi-row INSERT statements
+    private int seedMySQLExchanges(List<User> users, List<Book> books, int count) throws SQLException {
+        int created = 0;
+        try (Connection connection = openMySQLConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO exchanges (requester_id, provider_id, book_id, status, request_date) " +
+                            "VALUES (?, ?, ?, ?, ?)")) {
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                while (created < count) {
+                    int batch = Math.min(SEED_BATCH_SIZE, count - created);
+                    for (int i = 0; i < batch; i++) {
+                        Exchange exchange = newExchange(users, books.get(random.nextInt(books.size())));
+                        stmt.setInt(1, Integer.parseInt(exchange.getRequesterId()));
+                        stmt.setInt(2, Integer.parseInt(exchange.getProviderId()));
+                        stmt.setInt(3, Integer.parseInt(exchange.getBookId()));
+                        stmt.setString(4, exchange.getStatus());
+                        stmt.setTimestamp(5, now);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    connection.commit();
+                    created += batch;
+                }
+            }
+        }
+        return created;
+    }
+
+    private int seedMongoExchanges(List<User> users, List<Book> books, int count) {
+        int created = 0;
+        MongoCollection<Document> exchanges = harnessMongo().getDatabase(config.getProperty(ConfigManager.DB_NAME))
+                .getCollection("exchanges");
+        Date now = new Date();
+        while (created < count) {
+            int batch = Math.min(SEED_BATCH_SIZE, count - created);
+            List<Document> docs = new ArrayList<>();
+            for (int i = 0; i < batch; i++) {
+                Exchange exchange = newExchange(users, books.get(random.nextInt(books.size())));
+                docs.add(new Document("requesterId", new ObjectId(exchange.getRequesterId()))
+                        .append("providerId", new ObjectId(exchange.getProviderId()))
+                        .append("bookId", new ObjectId(exchange.getBookId()))
+                        .append("status", exchange.getStatus())
+                        .append("requestDate", now));
+            }
+            exchanges.insertMany(docs, new InsertManyOptions().ordered(false));
+            created += batch;
+        }
+        return created;
+    }
+
+    // Runs the pre-rewrite query once; returns its exchange counts, or null when it did not finish in time
+    private List<Integer> timeCorrelatedMostActiveUsers(int limit) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection connection = openMySQLConnection();
+             PreparedStatement stmt = connection.prepareStatement(CORRELATED_MOST_ACTIVE_USERS)) {
+            stmt.setInt(1, limit);
+            stmt.setQueryTimeout(CORRELATED_QUERY_TIMEOUT_SECONDS);
+            List<Integer> counts = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    counts.add(rs.getInt("exchange_count"));
+                }
+            }
+            report("correlated subquery (before)", 1, start);
+            return counts;
+        } catch (SQLTimeoutException e) {
+            System.out.println(String.format("%-34s did not finish within %d s", "correlated subquery (before)",
+                    CORRELATED_QUERY_TIMEOUT_SECONDS));
+            return null;
+        }
+    }
+
+    // The benchmark's own connections, for seeding and for queries the managers no longer run
+    private Connection openMySQLConnection() throws SQLException {
+        return DriverManager.getConnection("jdbc:mysql://" + config.getProperty(ConfigManager.DB_HOST) + ":" +
+                        config.getProperty(ConfigManager.DB_PORT) + "/" + config.getProperty(ConfigManager.DB_NAME) +
+                        "?useSSL=false&allowPublicKeyRetrieval=true&rewriteBatchedStatements=true",
+                config.getProperty(ConfigManager.DB_USER), config.getProperty(ConfigManager.DB_PASSWORD));
+    }
+
+    // The benchmark's own MongoDB client, for seeding and for reads the manager no longer does
+    private MongoClient harnessMongo() {
+        if (mongoClient == null) {
+            mongoClient = MongoClients.create(MongoClientSettings.builder()
+                    .applyConnectionString(new ConnectionString(mongoUri()))
+                    .addCommandListener(commands)
+                    .build());
+        }
+        return mongoClient;
+    }
+
+    private String mongoUri() {
+        String user = config.getProperty(ConfigManager.DB_USER);
+        String password = config.getProperty(ConfigManager.DB_PASSWORD);
+        String credentials = user != null && !user.isEmpty() && password != null && !password.isEmpty()
+                ? user + ":" + password + "@" : "";
+        return "mongodb://" + credentials + config.getProperty(ConfigManager.DB_HOST) + ":" +
+                config.getProperty(ConfigManager.DB_PORT);
+    }
+
+    // Runs the operation rounds times and returns the last result
+    private <T> T time(String name, int rounds, Supplier<T> operation) {
+        T result = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            result = operation.get();
+        }
+        report(name, rounds, start);
+        return result;
+    }
+
+    private static void report(String name, long operations, long startNanos) {
+        double millis = (System.nanoTime() - startNanos) / 1_000_000.0;
+        System.out.println(String.format("%-34s %8d ops %10.1f ms %10.3f ms/op", name, operations, millis,
+                operations > 0 ? millis / operations : 0));
+    }
+
+    // Counts the commands, that is the round trips, a client sends and the bytes of the replies it receives
+    private static class CommandCounter implements CommandListener {
+        private final Map<String, AtomicInteger> counts = new ConcurrentSkipListMap<>();
+        private final AtomicLong replyBytes = new AtomicLong();
+        private volatile boolean sizingReplies = true;
+
+        @Override
+        public void commandStarted(CommandStartedEvent event) {
+            counts.computeIfAbsent(event.getCommandName(), name -> new AtomicInteger()).incrementAndGet();
+        }
+
+        @Override
+        public void commandSucceeded(CommandSucceededEvent event) {
+            if (!sizingReplies) {
+                return;
+            }
+            replyBytes.addAndGet(new RawBsonDocument(event.getResponse(), new BsonDocumentCodec())
+                    .getByteBuffer().remaining());
+        }
+
+        void setSizingReplies(boolean sizingReplies) {
+            this.sizingReplies = sizingReplies;
+        }
+
+        long replyBytes() {
+            return replyBytes.get();
+        }
+
+        void reset() {
+            counts.clear();
+            replyBytes.set(0);
+        }
+
+        @Override
+        public String toString() {
+            int total = counts.values().stream().mapToInt(AtomicInteger::get).sum();
+            return String.format("%d commands %s, %.1f KB in replies", total, counts, replyBytes.get() / 1024.0);
+        }
+    }
+
+    // Counts the connections a client opens and how many of them are checked out at once
+    private static class PoolCounter implements ConnectionPoolListener {
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger checkouts = new AtomicInteger();
+        private final AtomicInteger inUse = new AtomicInteger();
+        private final AtomicInteger peakInUse = new AtomicInteger();
+
+        @Override
+        public void connectionCreated(ConnectionCreatedEvent event) {
+            created.incrementAndGet();
+        }
+
+        @Override
+        public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+            checkouts.incrementAndGet();
+            peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+        }
+
+        @Override
+        public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+            inUse.decrementAndGet();
+        }
+
+        // Connections already open stay counted in inUse
+        void reset() {
+            created.set(0);
+            checkouts.set(0);
+            peakInUse.set(inUse.get());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d connections opened, %d checkouts, at most %d in use at once",
+                    created.get(), checkouts.get(), peakInUse.get());
+        }
+    }
+}
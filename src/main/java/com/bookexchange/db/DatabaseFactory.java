@@ -2,7 +2,14 @@ package com.bookexchange.db;
 
 import com.bookexchange.config.ConfigManager;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class DatabaseFactory {
+    // Stores that live inside this process; every window has to get the same instance to see the same data
+    private static final Map<String, DatabaseManager> localManagers = new ConcurrentHashMap<>();
 
     public static DatabaseManager getDatabaseManager() {
         ConfigManager config = ConfigManager.getInstance();
@@ -12,15 +19,68 @@ public class DatabaseFactory {
             throw new IllegalStateException("Database type not configured. Please check your configuration.");
         }
 
+        if (config.isMemory()) {
+            // Nothing to save a round trip on, so neither of these gets a cache in front
+            return localManagers.computeIfAbsent("memory", key -> {
+                System.out.println("Creating in-memory manager");
+                return new InMemoryDatabaseManager();
+            });
+        }
+        if (config.isEmbedded()) {
+            // The directory can be opened only once at a time, so one manager per directory
+            return localManagers.computeIfAbsent("embedded:" + EmbeddedDatabaseManager.getConfiguredDirectory(), key -> {
+                System.out.println("Creating embedded manager");
+                return new EmbeddedDatabaseManager();
+            });
+        }
+
+        DatabaseManager manager;
         if (config.isMongoDB()) {
             System.out.println("Creating MongoDB manager");
-            return new MongoDBManager();
+            manager = new MongoDBManager();
         } else if (config.isMySQL()) {
-            System.out.println("Creating MySQL manager");
-            return new MySQLManager();
+            List<MySQLManager> replicas = getReplicaManagers(config);
+            if (!replicas.isEmpty()) {
+                System.out.println("Creating MySQL manager with " + replicas.size() + " read replica(s)");
+                manager = new RoutingDatabaseManager(new MySQLManager(), replicas);
+            } else {
+                System.out.println("Creating MySQL manager");
+                manager = new MySQLManager();
+            }
         } else {
             throw new IllegalStateException("Unknown database type configured: " + dbType +
-                    ". Valid types are 'mysql' or 'mongodb'.");
+                    ". Valid types are 'mysql', 'mongodb', 'memory' or 'embedded'.");
+        }
+
+        // Opt-in: cached reads can be up to db.cache.ttlMs behind writes made by other clients
+        if ("true".equalsIgnoreCase(config.getProperty(ConfigManager.DB_CACHE_ENABLED))) {
+            manager = new CachingDatabaseManager(manager,
+                    config.getIntProperty(ConfigManager.DB_CACHE_MAX_SIZE, 1000),
+                    config.getLongProperty(ConfigManager.DB_CACHE_TTL_MS, 30000));
+        }
+        return manager;
+    }
+
+    private static List<MySQLManager> getReplicaManagers(ConfigManager config) {
+        List<MySQLManager> replicas = new ArrayList<>();
+        String value = config.getProperty(ConfigManager.DB_REPLICAS);
+        if (value == null || value.trim().isEmpty()) {
+            return replicas;
+        }
+
+        for (String endpoint : value.split(",")) {
+            endpoint = endpoint.trim();
+            if (endpoint.isEmpty()) {
+                continue;
+            }
+            int colon = endpoint.lastIndexOf(':');
+            if (colon < 0) {
+                // No port given, use the primary's
+                replicas.add(new MySQLManager(endpoint, config.getProperty(ConfigManager.DB_PORT)));
+            } else {
+                replicas.add(new MySQLManager(endpoint.substring(0, colon), endpoint.substring(colon + 1)));
+            }
         }
+        return replicas;
     }
 }
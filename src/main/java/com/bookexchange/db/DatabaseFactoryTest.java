@@ -0,0 +1,72 @@
+package com.bookexchange.db;
+
+import com.bookexchange.config.ConfigManager;
+import com.bookexchange.model.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class DatabaseFactoryTest {
+    private ConfigManager config;
+    private String previousType;
+    private String previousDir;
+
+    @Before
+    public void setUp() {
+        config = ConfigManager.getInstance();
+        previousType = config.getProperty(ConfigManager.DB_TYPE);
+        previousDir = config.getProperty(ConfigManager.DB_EMBEDDED_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        config.setProperty(ConfigManager.DB_TYPE, previousType);
+        config.setProperty(ConfigManager.DB_EMBEDDED_DIR, previousDir != null ? previousDir : "");
+    }
+
+    @Test
+    public void testMemoryManagerIsSharedBetweenCallers() {
+        config.setProperty(ConfigManager.DB_TYPE, "memory");
+
+        // The login window and the main window each ask the factory for a manager
+        DatabaseManager loginManager = DatabaseFactory.getDatabaseManager();
+        loginManager.connect();
+        String username = "shared" + System.nanoTime();
+        assertTrue(loginManager.registerUser(new User(username, "password", username + "@example.com",
+                "Shared User", "1 Test St")));
+
+        DatabaseManager mainManager = DatabaseFactory.getDatabaseManager();
+        assertSame(loginManager, mainManager);
+        assertTrue(mainManager.isConnected());
+        assertTrue(mainManager.authenticateUser(username, "password"));
+    }
+
+    @Test
+    public void testEmbeddedManagerIsSharedBetweenCallers() throws IOException {
+        Path directory = Files.createTempDirectory("bookexchange-factory");
+        config.setProperty(ConfigManager.DB_TYPE, "embedded");
+        config.setProperty(ConfigManager.DB_EMBEDDED_DIR, directory.toString());
+
+        DatabaseManager loginManager = DatabaseFactory.getDatabaseManager();
+        loginManager.connect();
+        try {
+            // A second manager on the directory could not even connect; the factory hands out the first one
+            DatabaseManager mainManager = DatabaseFactory.getDatabaseManager();
+            assertSame(loginManager, mainManager);
+            assertTrue(mainManager.isConnected());
+        } finally {
+            loginManager.disconnect();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -2,9 +2,12 @@ package com.bookexchange.db;
 
 import com.bookexchange.model.Book;
 import com.bookexchange.model.Exchange;
+import com.bookexchange.model.SystemStats;
 import com.bookexchange.model.User;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface DatabaseManager {
     // Connection methods
@@ -20,14 +23,29 @@ public interface DatabaseManager {
 
     // Book methods
     List<Book> getAllBooks();
+    Book getBookById(String bookId);
+    // Books that no longer exist are left out of the result
+    List<Book> getBooksByIds(Collection<String> bookIds);
     List<Book> getBooksByUser(String username);
+    // Streaming variants push rows to the consumer as they arrive instead of building a list
+    void streamAllBooks(Consumer<Book> consumer);
+    void streamBooksByUser(String username, Consumer<Book> consumer);
+    // Keyset pagination over available books ordered by id; afterBookId null starts at the beginning
+    List<Book> getAvailableBooksPage(String afterBookId, int pageSize, String excludeOwnerId);
     boolean addBook(Book book);
+    // Inserts in chunks; rows that fail are reported without aborting the rest
+    BulkInsertResult addBooks(List<Book> books);
     boolean updateBook(Book book);
     boolean deleteBook(String bookId);
 
     // Exchange methods
     List<Exchange> getExchangesByUser(String username);
-    boolean createExchange(Exchange exchange);
+    // Newest first; status null matches every status, limit 0 means no limit
+    List<Exchange> getExchangesByUser(String username, String status, int limit);
+    void streamExchangesByUser(String username, Consumer<Exchange> consumer);
+    Exchange getExchangeById(String exchangeId);
+    // Claims the book and records the exchange atomically
+    ExchangeResult createExchange(Exchange exchange);
     boolean updateExchangeStatus(String exchangeId, String status);
 
     // Reporting methods
@@ -36,4 +54,8 @@ public interface DatabaseManager {
     int getTotalExchanges();
     int getTotalBooks();
     int getTotalUsers();
+    // All totals from the maintained counters in one lookup
+    SystemStats getSystemStats();
+    // Recomputes the counters from the tables and returns the exact totals
+    SystemStats reconcileSystemStats();
 }
\ No newline at end of file
@@ -3,12 +3,20 @@ package com.bookexchange.db;
 import com.bookexchange.config.ConfigManager;
 import com.bookexchange.model.Book;
 import com.bookexchange.model.Exchange;
+import com.bookexchange.model.SystemStats;
 import com.bookexchange.model.User;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -55,6 +63,15 @@ public class DatabaseManagerTest {
         dbManager.disconnect();
     }
 
+    // Exchanges keep their users and books from being deleted, so users that take part in one get a
+    // fresh name every run instead of clashing with the leftovers of the previous run
+    private User registerUniqueUser(String prefix) {
+        String username = prefix + System.nanoTime();
+        assertTrue(dbManager.registerUser(new User(username, "password", username + "@example.com",
+                "Test Provider", "789 Test St")));
+        return dbManager.getUserByUsername(username);
+    }
+
     @Test
     public void testAuthentication() {
         assertTrue(dbManager.authenticateUser("testuser", "password"));
@@ -108,6 +125,79 @@ public class DatabaseManagerTest {
         assertTrue(foundBook);
     }
 
+    @Test
+    public void testGetBookById() {
+        List<Book> books = dbManager.getBooksByUser("testuser");
+        assertFalse(books.isEmpty());
+        Book book = books.get(0);
+
+        Book found = dbManager.getBookById(book.getId());
+        assertNotNull(found);
+        assertEquals(book.getTitle(), found.getTitle());
+        assertEquals("testuser", found.getOwnerName());
+
+        List<String> ids = new ArrayList<>();
+        for (Book b : books) {
+            ids.add(b.getId());
+        }
+        ids.add("999999999");
+        assertEquals(books.size(), dbManager.getBooksByIds(ids).size());
+
+        assertNull(dbManager.getBookById("999999999"));
+    }
+
+    @Test
+    public void testAddBooksReportsFailedRows() {
+        List<Book> newBooks = new ArrayList<>();
+        newBooks.add(new Book("Bulk Book 1", "Bulk Author", "1000000001", "First bulk book", "Good", testUser.getId()));
+        newBooks.add(new Book("Bulk Book 2", "Bulk Author", "1000000002", "Bad owner", "Good", "not-an-id"));
+        newBooks.add(new Book("Bulk Book 3", "Bulk Author", "1000000003", "Third bulk book", "Good", testUser.getId()));
+
+        BulkInsertResult result = dbManager.addBooks(newBooks);
+
+        assertEquals(2, result.getInsertedCount());
+        assertEquals(1, result.getFailures().size());
+        assertTrue(result.getFailures().containsKey(1));
+    }
+
+    @Test
+    public void testSystemStatsFollowWrites() {
+        SystemStats before = dbManager.getSystemStats();
+
+        assertTrue(dbManager.addBook(new Book("Counted Book", "Counter Author", "2000000001",
+                "Counted by the stats table", "Good", testUser.getId())));
+
+        SystemStats after = dbManager.getSystemStats();
+        assertEquals(before.getTotalBooks() + 1, after.getTotalBooks());
+        assertEquals(before.getTotalUsers(), after.getTotalUsers());
+
+        // Reconciling recounts the tables and must agree with the maintained counters
+        SystemStats reconciled = dbManager.reconcileSystemStats();
+        assertEquals(after.getTotalBooks(), reconciled.getTotalBooks());
+        assertEquals(after.getTotalUsers(), reconciled.getTotalUsers());
+        assertEquals(after.getTotalExchanges(), reconciled.getTotalExchanges());
+    }
+
+    @Test
+    public void testCacheServesRepeatedReadsAndEvictsOnWrite() {
+        // The cache is opt-in, so wrap the configured manager directly
+        CachingDatabaseManager cachingManager = new CachingDatabaseManager(dbManager, 100, 60000);
+
+        int booksBefore = cachingManager.getBooksByUser("testuser").size();
+        long hitsBefore = cachingManager.getCacheHits();
+        assertEquals(booksBefore, cachingManager.getBooksByUser("testuser").size());
+        assertTrue(cachingManager.getCacheHits() > hitsBefore);
+
+        // Editing a returned book must not change what the cache serves next
+        cachingManager.getBooksByUser("testuser").get(0).setTitle("Edited In Place");
+        assertNotEquals("Edited In Place", cachingManager.getBooksByUser("testuser").get(0).getTitle());
+
+        // The owner's cached list must not survive their own write
+        assertTrue(cachingManager.addBook(new Book("Cached Book", "Cache Author", "3000000001",
+                "Evicts the owner's list", "Good", testUser.getId())));
+        assertEquals(booksBefore + 1, cachingManager.getBooksByUser("testuser").size());
+    }
+
     @Test
     public void testUpdateBook() {
         List<Book> books = dbManager.getBooksByUser("testuser");
@@ -200,7 +290,10 @@ public class DatabaseManagerTest {
         exchange.setProviderId(anotherUser.getId());
         exchange.setBookId(book.getId());
 
-        assertTrue(dbManager.createExchange(exchange));
+        assertEquals(ExchangeResult.CREATED, dbManager.createExchange(exchange));
+
+        // The book is claimed, a second request must not create another exchange
+        assertEquals(ExchangeResult.ALREADY_TAKEN, dbManager.createExchange(exchange));
 
         // Check if book is now unavailable
         books = dbManager.getAllBooks();
@@ -264,4 +357,132 @@ public class DatabaseManagerTest {
         // Clean up
         dbManager.deleteBook(book.getId());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testConcurrentExchangeRequestsClaimBookOnce() throws Exception {
+        User provider = registerUniqueUser("provideruser");
+
+        dbManager.addBook(new Book("Contended Book", "Some Author", "5566778899",
+                "A book everybody wants", "Good", provider.getId()));
+
+        Book book = null;
+        for (Book b : dbManager.getBooksByUser(provider.getUsername())) {
+            if (b.getTitle().equals("Contended Book")) {
+                book = b;
+                break;
+            }
+        }
+        assertNotNull(book);
+
+        int requests = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ExchangeResult>> results = new ArrayList<>();
+        final String bookId = book.getId();
+        final String providerId = provider.getId();
+
+        for (int i = 0; i < requests; i++) {
+            results.add(executor.submit(() -> {
+                Exchange exchange = new Exchange();
+                exchange.setRequesterId(testUser.getId());
+                exchange.setProviderId(providerId);
+                exchange.setBookId(bookId);
+                start.await();
+                return dbManager.createExchange(exchange);
+            }));
+        }
+        start.countDown();
+
+        int created = 0;
+        for (Future<ExchangeResult> result : results) {
+            ExchangeResult value = result.get(30, TimeUnit.SECONDS);
+            assertNotEquals(ExchangeResult.FAILED, value);
+            if (value == ExchangeResult.CREATED) {
+                created++;
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(1, created);
+    }
+
+    @Test
+    public void testCancellationReleasesBookOnceUnderContention() throws Exception {
+        User provider = registerUniqueUser("releaseuser");
+
+        dbManager.addBook(new Book("Released Book", "Some Author", "6677889900",
+                "A book that is requested again after a cancellation", "Good", provider.getId()));
+
+        Book book = null;
+        for (Book b : dbManager.getBooksByUser(provider.getUsername())) {
+            if (b.getTitle().equals("Released Book")) {
+                book = b;
+                break;
+            }
+        }
+        assertNotNull(book);
+
+        Exchange exchange = new Exchange();
+        exchange.setRequesterId(testUser.getId());
+        exchange.setProviderId(provider.getId());
+        exchange.setBookId(book.getId());
+        assertEquals(ExchangeResult.CREATED, dbManager.createExchange(exchange));
+
+        Exchange created = null;
+        for (Exchange e : dbManager.getExchangesByUser(provider.getUsername())) {
+            if (e.getBookId().equals(book.getId())) {
+                created = e;
+                break;
+            }
+        }
+        assertNotNull(created);
+
+        // Repeated cancellations race with new requests; only the first cancellation may release the book
+        int requests = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(requests * 2);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean claimed = new AtomicBoolean();
+        List<Future<Boolean>> cancellations = new ArrayList<>();
+        List<Future<ExchangeResult>> results = new ArrayList<>();
+        final String exchangeId = created.getId();
+
+        for (int i = 0; i < requests; i++) {
+            cancellations.add(executor.submit(() -> {
+                start.await();
+                return dbManager.updateExchangeStatus(exchangeId, "CANCELLED");
+            }));
+            results.add(executor.submit(() -> {
+                start.await();
+                // Keep asking until the cancellation has gone through or someone else got the book
+                long deadline = System.currentTimeMillis() + 10000;
+                ExchangeResult result;
+                do {
+                    result = dbManager.createExchange(exchange);
+                } while (result == ExchangeResult.ALREADY_TAKEN && !claimed.get()
+                        && System.currentTimeMillis() < deadline);
+                if (result == ExchangeResult.CREATED) {
+                    claimed.set(true);
+                }
+                return result;
+            }));
+        }
+        start.countDown();
+
+        int createdAgain = 0;
+        for (Future<ExchangeResult> result : results) {
+            ExchangeResult value = result.get(30, TimeUnit.SECONDS);
+            assertNotEquals(ExchangeResult.FAILED, value);
+            if (value == ExchangeResult.CREATED) {
+                createdAgain++;
+            }
+        }
+        for (Future<Boolean> cancellation : cancellations) {
+            cancellation.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // Late cancellations of the old exchange must not have freed the book again
+        assertEquals(ExchangeResult.ALREADY_TAKEN, dbManager.createExchange(exchange));
+        assertEquals(1, createdAgain);
+    }
+}
@@ -0,0 +1,663 @@
+package com.bookexchange.db;
+
+import com.bookexchange.config.ConfigManager;
+import com.bookexchange.model.Book;
+import com.bookexchange.model.Exchange;
+import com.bookexchange.model.User;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// The in-memory backend made durable in a local directory, for single-site installs without a database server.
+// Every change is appended to a write-ahead log and a write returns once its record is fsynced.
+// Snapshots of all records are written once the current log segment passes a size threshold, so
+// recovery loads the newest snapshot and replays at most that much log.
+public class EmbeddedDatabaseManager extends InMemoryDatabaseManager {
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".dat";
+    private static final int SNAPSHOT_MAGIC = 0x42585331; // "BXS1"
+    private static final String LOCK_FILE = "lock";
+
+    private static final byte USER_RECORD = 1;
+    private static final byte BOOK_RECORD = 2;
+    private static final byte BOOK_DELETED_RECORD = 3;
+    private static final byte EXCHANGE_RECORD = 4;
+
+    private final Path directory;
+    private final long snapshotThresholdBytes;
+    private final long snapshotIntervalMillis;
+    private final long groupCommitMillis;
+    // Writers share it; a snapshot takes it exclusively for the moment it needs memory and log to agree
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private volatile WriteAheadLog log;
+    // Held while connected; a second manager on the same directory would delete log segments the first still appends to
+    private FileChannel lockChannel;
+    private ScheduledExecutorService snapshotter;
+    private boolean recovered;
+    private long lastRecoveryMillis = -1;
+
+    public EmbeddedDatabaseManager() {
+        this(getConfiguredDirectory(),
+                ConfigManager.getInstance().getLongProperty(ConfigManager.DB_EMBEDDED_SNAPSHOT_THRESHOLD_BYTES,
+                        16 * 1024 * 1024),
+                ConfigManager.getInstance().getLongProperty(ConfigManager.DB_EMBEDDED_SNAPSHOT_INTERVAL_MS, 600000),
+                ConfigManager.getInstance().getLongProperty(ConfigManager.DB_EMBEDDED_GROUP_COMMIT_MS, 0));
+    }
+
+    public EmbeddedDatabaseManager(Path directory, long snapshotThresholdBytes, long snapshotIntervalMillis,
+                                   long groupCommitMillis) {
+        this.directory = directory;
+        this.snapshotThresholdBytes = Math.max(1, snapshotThresholdBytes);
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.groupCommitMillis = groupCommitMillis;
+    }
+
+    public static Path getConfiguredDirectory() {
+        String value = ConfigManager.getInstance().getProperty(ConfigManager.DB_EMBEDDED_DIR);
+        return Paths.get(value == null || value.trim().isEmpty() ? "bookexchange-data" : value.trim())
+                .toAbsolutePath().normalize();
+    }
+
+    @Override
+    public void connect() {
+        if (log != null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+            if (!lockDirectory()) {
+                System.err.println("Embedded database in " + directory + " is already open in another process or manager");
+                return;
+            }
+            long segment;
+            if (!recovered) {
+                segment = recover();
+                recovered = true;
+            } else {
+                // Reconnecting: memory is still current, continue after the last segment
+                List<Long> segments = WriteAheadLog.listSegments(directory);
+                segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+            }
+            log = new WriteAheadLog(directory, segment, groupCommitMillis);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error opening embedded database in " + directory + ": " + e.getMessage());
+            e.printStackTrace();
+            unlockDirectory();
+            return;
+        }
+
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "embedded-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (snapshotIntervalMillis > 0) {
+            snapshotter.scheduleWithFixedDelay(() -> {
+                if (log != null && log.getSegmentBytes() > 0) {
+                    snapshot();
+                }
+            }, snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        // A long tail means the last run ended before it could snapshot; keep the next recovery short
+        if (log.getSegmentBytes() >= snapshotThresholdBytes) {
+            scheduleSnapshot();
+        }
+        super.connect();
+    }
+
+    // Loads the newest snapshot and replays the log after it; returns the segment to continue appending to
+    private long recover() throws IOException {
+        long start = System.currentTimeMillis();
+        int[] snapshotRecords = new int[1];
+        int[] logRecords = new int[1];
+        long logBytes = 0;
+
+        long firstSegment = 1;
+        Path snapshot = latestSnapshot();
+        if (snapshot != null) {
+            firstSegment = snapshotSegment(snapshot);
+            try (InputStream input = Files.newInputStream(snapshot)) {
+                DataInputStream header = new DataInputStream(input);
+                if (header.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a snapshot file: " + snapshot);
+                }
+                long valid = WriteAheadLog.readRecords(input, payload -> {
+                    apply(payload);
+                    snapshotRecords[0]++;
+                });
+                if (valid + 4 != Files.size(snapshot)) {
+                    throw new IOException("Snapshot " + snapshot + " is damaged at offset " + (valid + 4));
+                }
+            }
+        }
+
+        List<Long> segments = WriteAheadLog.listSegments(directory);
+        long lastSegment = firstSegment;
+        for (int i = 0; i < segments.size(); i++) {
+            long segment = segments.get(i);
+            if (segment < firstSegment) {
+                continue;
+            }
+            lastSegment = segment;
+            Path path = WriteAheadLog.segmentPath(directory, segment);
+            long valid;
+            try (InputStream input = Files.newInputStream(path)) {
+                valid = WriteAheadLog.readRecords(input, payload -> {
+                    apply(payload);
+                    logRecords[0]++;
+                });
+            }
+            logBytes += valid;
+
+            long size = Files.size(path);
+            if (valid < size) {
+                if (i < segments.size() - 1) {
+                    throw new IOException("Write-ahead log segment " + path + " is damaged at offset " + valid);
+                }
+                // A crash in the middle of a batch; none of its writes had been acknowledged
+                System.err.println("Discarding " + (size - valid) + " bytes of incomplete records at the end of " + path);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(valid);
+                    channel.force(true);
+                }
+            }
+        }
+
+        lastRecoveryMillis = System.currentTimeMillis() - start;
+        System.out.println("Recovered embedded database from " + directory + " in " + lastRecoveryMillis + " ms: " +
+                snapshotRecords[0] + " snapshot records, " + logRecords[0] + " log records (" + logBytes + " bytes)");
+        return lastSegment;
+    }
+
+    // How long the last startup took to load the snapshot and replay the log, -1 before the first connect
+    public long getLastRecoveryMillis() {
+        return lastRecoveryMillis;
+    }
+
+    @Override
+    public void disconnect() {
+        WriteAheadLog current = log;
+        if (current == null) {
+            return;
+        }
+
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+            try {
+                snapshotter.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            snapshotter = null;
+        }
+        // A snapshot at shutdown leaves nothing to replay on the next start
+        if (current.getSegmentBytes() > 0) {
+            snapshot();
+        }
+
+        log = null;
+        try {
+            current.close();
+        } catch (IOException e) {
+            System.err.println("Error closing write-ahead log: " + e.getMessage());
+            e.printStackTrace();
+        }
+        unlockDirectory();
+        super.disconnect();
+    }
+
+    // The OS drops the lock if the process dies, so a crash never leaves the directory locked
+    private boolean lockDirectory() throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another manager in this JVM
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            return false;
+        }
+        lockChannel = channel;
+        return true;
+    }
+
+    private void unlockDirectory() {
+        if (lockChannel == null) {
+            return;
+        }
+        try {
+            // Closing the channel releases the lock
+            lockChannel.close();
+        } catch (IOException e) {
+            System.err.println("Error unlocking embedded database directory: " + e.getMessage());
+        }
+        lockChannel = null;
+    }
+
+    private void scheduleSnapshot() {
+        ScheduledExecutorService current = snapshotter;
+        if (current != null && snapshotScheduled.compareAndSet(false, true)) {
+            try {
+                current.execute(this::snapshot);
+            } catch (RuntimeException e) {
+                // Shutting down; disconnect writes the snapshot itself
+                snapshotScheduled.set(false);
+            }
+        }
+    }
+
+    // Records in memory and in the log agree while writers are held off; the snapshot itself is written
+    // after they are let go again, from records that are never modified in place
+    private synchronized void snapshot() {
+        WriteAheadLog current = log;
+        if (current == null) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        long segment;
+        List<User> users;
+        List<Book> books;
+        List<Exchange> exchanges;
+        snapshotLock.writeLock().lock();
+        try {
+            segment = current.rotate();
+            users = storedUsers();
+            books = storedBooks();
+            exchanges = storedExchanges();
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Error starting snapshot: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        } finally {
+            snapshotLock.writeLock().unlock();
+            snapshotScheduled.set(false);
+        }
+
+        Path target = directory.resolve(String.format("%s%010d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+                output.write(ByteBuffer.allocate(4).putInt(SNAPSHOT_MAGIC).array());
+                for (User user : users) {
+                    writeFramed(output, encodeUser(user));
+                }
+                for (Book book : books) {
+                    writeFramed(output, encodeBook(book));
+                }
+                for (Exchange exchange : exchanges) {
+                    writeFramed(output, encodeExchange(exchange, null));
+                }
+                output.flush();
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            WriteAheadLog.syncDirectory(directory);
+
+            // Everything before the new segment is in the snapshot now
+            for (Long old : WriteAheadLog.listSegments(directory)) {
+                if (old < segment) {
+                    Files.deleteIfExists(WriteAheadLog.segmentPath(directory, old));
+                }
+            }
+            // Older snapshots, and temp files left by a snapshot that was cut short
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    if (name.startsWith(SNAPSHOT_PREFIX) && !file.equals(target)) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+            System.out.println("Wrote embedded database snapshot of " +
+                    (users.size() + books.size() + exchanges.size()) + " records in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
+            // The log segments are kept, so nothing is lost; the next snapshot tries again
+            System.err.println("Error writing snapshot " + target + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private Path latestSnapshot() throws IOException {
+        Path latest = null;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX) &&
+                        (latest == null || snapshotSegment(file) > snapshotSegment(latest))) {
+                    latest = file;
+                }
+            }
+        }
+        return latest;
+    }
+
+    private static long snapshotSegment(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+    }
+
+    private static void writeFramed(OutputStream output, byte[] payload) throws IOException {
+        ByteBuffer frame = WriteAheadLog.frame(payload);
+        output.write(frame.array(), 0, frame.limit());
+    }
+
+    // Runs a change while no snapshot is being cut and returns once its log records are on disk
+    private <T> T write(Supplier<T> change, T failed) {
+        T result;
+        snapshotLock.readLock().lock();
+        try {
+            result = change.get();
+        } catch (IllegalStateException e) {
+            System.err.println("Error writing to embedded database: " + e.getMessage());
+            return failed;
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+
+        WriteAheadLog current = log;
+        if (current == null) {
+            return failed;
+        }
+        try {
+            current.sync(current.lastSequence());
+        } catch (IOException e) {
+            System.err.println("Error writing to embedded database: " + e.getMessage());
+            return failed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed;
+        }
+
+        if (current.getSegmentBytes() >= snapshotThresholdBytes) {
+            scheduleSnapshot();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean registerUser(User user) {
+        return write(() -> super.registerUser(user), false);
+    }
+
+    @Override
+    public boolean updateUser(User user) {
+        return write(() -> super.updateUser(user), false);
+    }
+
+    @Override
+    public boolean addBook(Book book) {
+        return write(() -> super.addBook(book), false);
+    }
+
+    // One fsync for the whole list instead of one per book
+    @Override
+    public BulkInsertResult addBooks(List<Book> books) {
+        BulkInsertResult failed = new BulkInsertResult();
+        for (int i = 0; i < books.size(); i++) {
+            failed.addFailure(i, "Not written to disk");
+        }
+        return write(() -> super.addBooks(books), failed);
+    }
+
+    @Override
+    public boolean updateBook(Book book) {
+        return write(() -> super.updateBook(book), false);
+    }
+
+    @Override
+    public boolean deleteBook(String bookId) {
+        return write(() -> super.deleteBook(bookId), false);
+    }
+
+    @Override
+    public ExchangeResult createExchange(Exchange exchange) {
+        return write(() -> super.createExchange(exchange), ExchangeResult.FAILED);
+    }
+
+    @Override
+    public boolean updateExchangeStatus(String exchangeId, String status) {
+        return write(() -> super.updateExchangeStatus(exchangeId, status), false);
+    }
+
+    @Override
+    protected void userStored(User user) {
+        append(encodeUser(user));
+    }
+
+    @Override
+    protected void bookStored(Book book) {
+        append(encodeBook(book));
+    }
+
+    @Override
+    protected void bookDeleted(String bookId) {
+        RecordWriter record = new RecordWriter(BOOK_DELETED_RECORD);
+        record.writeString(bookId);
+        append(record.toByteArray());
+    }
+
+    // The exchange and the book it claims or releases share one record, so recovery never sees one without the other
+    @Override
+    protected void exchangeStored(Exchange exchange, Book book) {
+        append(encodeExchange(exchange, book));
+    }
+
+    private void append(byte[] payload) {
+        WriteAheadLog current = log;
+        if (current == null) {
+            throw new IllegalStateException("Embedded database is not connected");
+        }
+        current.append(payload);
+    }
+
+    // Records only ever carry the full new state, so replaying one that the snapshot already holds is harmless
+    private void apply(byte[] payload) {
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = input.readByte();
+            switch (type) {
+                case USER_RECORD:
+                    restoreUser(readUser(input));
+                    break;
+                case BOOK_RECORD:
+                    restoreBook(readBook(input));
+                    break;
+                case BOOK_DELETED_RECORD:
+                    restoreBookDeletion(readString(input));
+                    break;
+                case EXCHANGE_RECORD:
+                    restoreExchange(readExchange(input));
+                    if (input.readBoolean()) {
+                        restoreBook(readBook(input));
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encodeUser(User user) {
+        RecordWriter record = new RecordWriter(USER_RECORD);
+        record.writeString(user.getId());
+        record.writeString(user.getUsername());
+        record.writeString(user.getPassword());
+        record.writeString(user.getEmail());
+        record.writeString(user.getFullName());
+        record.writeString(user.getAddress());
+        return record.toByteArray();
+    }
+
+    private static byte[] encodeBook(Book book) {
+        RecordWriter record = new RecordWriter(BOOK_RECORD);
+        writeBook(record, book);
+        return record.toByteArray();
+    }
+
+    private static void writeBook(RecordWriter record, Book book) {
+        record.writeString(book.getId());
+        record.writeString(book.getTitle());
+        record.writeString(book.getAuthor());
+        record.writeString(book.getIsbn());
+        record.writeString(book.getDescription());
+        record.writeString(book.getCondition());
+        record.writeString(book.getOwnerId());
+        record.writeBoolean(book.isAvailable());
+    }
+
+    private static byte[] encodeExchange(Exchange exchange, Book book) {
+        RecordWriter record = new RecordWriter(EXCHANGE_RECORD);
+        record.writeString(exchange.getId());
+        record.writeString(exchange.getRequesterId());
+        record.writeString(exchange.getProviderId());
+        record.writeString(exchange.getBookId());
+        record.writeString(exchange.getStatus());
+        record.writeDate(exchange.getRequestDate());
+        record.writeDate(exchange.getCompletionDate());
+        record.writeBoolean(book != null);
+        if (book != null) {
+            writeBook(record, book);
+        }
+        return record.toByteArray();
+    }
+
+    private static User readUser(DataInputStream input) throws IOException {
+        User user = new User();
+        user.setId(readString(input));
+        user.setUsername(readString(input));
+        user.setPassword(readString(input));
+        user.setEmail(readString(input));
+        user.setFullName(readString(input));
+        user.setAddress(readString(input));
+        return user;
+    }
+
+    private static Book readBook(DataInputStream input) throws IOException {
+        Book book = new Book();
+        book.setId(readString(input));
+        book.setTitle(readString(input));
+        book.setAuthor(readString(input));
+        book.setIsbn(readString(input));
+        book.setDescription(readString(input));
+        book.setCondition(readString(input));
+        book.setOwnerId(readString(input));
+        book.setAvailable(input.readBoolean());
+        return book;
+    }
+
+    private static Exchange readExchange(DataInputStream input) throws IOException {
+        Exchange exchange = new Exchange();
+        exchange.setId(readString(input));
+        exchange.setRequesterId(readString(input));
+        exchange.setProviderId(readString(input));
+        exchange.setBookId(readString(input));
+        exchange.setStatus(readString(input));
+        exchange.setRequestDate(readDate(input));
+        exchange.setCompletionDate(readDate(input));
+        return exchange;
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Date readDate(DataInputStream input) throws IOException {
+        long time = input.readLong();
+        return time == Long.MIN_VALUE ? null : new Date(time);
+    }
+
+    // Strings are length-prefixed UTF-8 rather than writeUTF, which stops at 64 KB
+    private static class RecordWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        private final DataOutputStream output = new DataOutputStream(bytes);
+
+        RecordWriter(byte type) {
+            writeByte(type);
+        }
+
+        void writeByte(int value) {
+            try {
+                output.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        void writeString(String value) {
+            try {
+                if (value == null) {
+                    output.writeInt(-1);
+                } else {
+                    byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+                    output.writeInt(encoded.length);
+                    output.write(encoded);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeDate(Date value) {
+            try {
+                output.writeLong(value != null ? value.getTime() : Long.MIN_VALUE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.bookexchange.db;
+
+import com.bookexchange.model.Book;
+import com.bookexchange.model.Exchange;
+import com.bookexchange.model.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class EmbeddedDatabaseManagerTest {
+    private Path directory;
+    private Path crashCopy;
+    private EmbeddedDatabaseManager dbManager;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("bookexchange-embedded");
+        dbManager = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        dbManager.disconnect();
+        delete(directory);
+        if (crashCopy != null) {
+            delete(crashCopy);
+        }
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private EmbeddedDatabaseManager open() {
+        return open(directory);
+    }
+
+    private static EmbeddedDatabaseManager open(Path directory) {
+        EmbeddedDatabaseManager manager = new EmbeddedDatabaseManager(directory, 1024 * 1024, 0, 0);
+        manager.connect();
+        assertTrue(manager.isConnected());
+        return manager;
+    }
+
+    private void populate() {
+        assertTrue(dbManager.registerUser(new User("owner", "password", "owner@example.com", "Owner User", "1 Test St")));
+        assertTrue(dbManager.registerUser(new User("requester", "password", "requester@example.com", "Requester User", "2 Test St")));
+        User owner = dbManager.getUserByUsername("owner");
+        User requester = dbManager.getUserByUsername("requester");
+
+        assertTrue(dbManager.addBook(new Book("Kept Book", "Author", "1000000001", "Desc", "Good", owner.getId())));
+        assertTrue(dbManager.addBook(new Book("Claimed Book", "Author", "1000000002", "Desc", "Good", owner.getId())));
+        String claimedId = dbManager.getAvailableBooksPage(null, 2, null).get(1).getId();
+
+        Exchange exchange = new Exchange();
+        exchange.setRequesterId(requester.getId());
+        exchange.setProviderId(owner.getId());
+        exchange.setBookId(claimedId);
+        assertEquals(ExchangeResult.CREATED, dbManager.createExchange(exchange));
+    }
+
+    private void assertPopulated(DatabaseManager manager) {
+        assertTrue(manager.authenticateUser("owner", "password"));
+        assertEquals(2, manager.getTotalUsers());
+        assertEquals(2, manager.getTotalBooks());
+        assertEquals(1, manager.getTotalExchanges());
+
+        List<Book> available = manager.getAllBooks();
+        assertEquals(1, available.size());
+        assertEquals("Kept Book", available.get(0).getTitle());
+
+        List<Exchange> history = manager.getExchangesByUser("requester");
+        assertEquals(1, history.size());
+        assertEquals("Claimed Book", history.get(0).getBookTitle());
+        assertEquals("Claimed Book", manager.getMostExchangedBooks(1).get(0).getTitle());
+    }
+
+    @Test
+    public void testRecoversFromSnapshotAfterCleanShutdown() {
+        populate();
+        dbManager.disconnect();
+
+        dbManager = open();
+        assertPopulated(dbManager);
+        assertTrue(dbManager.getLastRecoveryMillis() >= 0);
+
+        // New ids continue after the recovered ones
+        User owner = dbManager.getUserByUsername("owner");
+        assertTrue(dbManager.addBook(new Book("After Restart", "Author", "1000000003", "Desc", "Good", owner.getId())));
+        assertEquals(3, dbManager.getBooksByUser("owner").size());
+    }
+
+    @Test
+    public void testReplaysLogWrittenBeforeCrash() throws IOException {
+        populate();
+
+        // Writes return once they are on disk, so copying the files while the manager is still open
+        // gives exactly what a crash at this point leaves behind
+        crashCopy = Files.createTempDirectory("bookexchange-crashed");
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, crashCopy.resolve(file.getFileName()));
+            }
+        }
+
+        EmbeddedDatabaseManager recovered = open(crashCopy);
+        try {
+            assertPopulated(recovered);
+        } finally {
+            recovered.disconnect();
+        }
+    }
+
+    @Test
+    public void testDirectoryCanBeOpenedOnlyOnce() {
+        populate();
+
+        EmbeddedDatabaseManager second = new EmbeddedDatabaseManager(directory, 1024 * 1024, 0, 0);
+        second.connect();
+        assertFalse(second.isConnected());
+
+        // Released again on disconnect
+        dbManager.disconnect();
+        second.connect();
+        try {
+            assertTrue(second.isConnected());
+            assertPopulated(second);
+        } finally {
+            second.disconnect();
+        }
+        dbManager = open();
+    }
+
+    @Test
+    public void testTornTailIsDiscarded() throws IOException {
+        populate();
+        dbManager.disconnect();
+
+        // Half a record at the end, as a crash in the middle of a write leaves it
+        List<Long> segments = WriteAheadLog.listSegments(directory);
+        Path last = WriteAheadLog.segmentPath(directory, segments.get(segments.size() - 1));
+        Files.write(last, new byte[]{0, 0, 0, 42, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        dbManager = open();
+        assertPopulated(dbManager);
+        assertEquals(0, Files.size(last));
+
+        // Cancelling after recovery releases the book, and that survives the next restart too
+        String exchangeId = dbManager.getExchangesByUser("requester").get(0).getId();
+        assertTrue(dbManager.updateExchangeStatus(exchangeId, "CANCELLED"));
+        dbManager.disconnect();
+        dbManager = open();
+        assertEquals(2, dbManager.getAllBooks().size());
+    }
+}
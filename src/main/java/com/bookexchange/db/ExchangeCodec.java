@@ -0,0 +1,40 @@
+package com.bookexchange.db;
+
+import com.bookexchange.model.Exchange;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.codecs.DecoderContext;
+
+public class ExchangeCodec extends ModelCodec<Exchange> {
+
+    @Override
+    public Exchange decode(BsonReader reader, DecoderContext decoderContext) {
+        Exchange exchange = new Exchange();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id": exchange.setId(readId(reader)); break;
+                case "requesterId": exchange.setRequesterId(readId(reader)); break;
+                case "providerId": exchange.setProviderId(readId(reader)); break;
+                case "bookId": exchange.setBookId(readId(reader)); break;
+                case "status": exchange.setStatus(readString(reader)); break;
+                case "requestDate": exchange.setRequestDate(readDate(reader)); break;
+                case "completionDate": exchange.setCompletionDate(readDate(reader)); break;
+                // Joined or denormalized by the query
+                case "bookTitle": exchange.setBookTitle(readString(reader)); break;
+                case "requesterName": exchange.setRequesterName(readString(reader)); break;
+                case "providerName": exchange.setProviderName(readString(reader)); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.readEndDocument();
+
+        return exchange;
+    }
+
+    @Override
+    public Class<Exchange> getEncoderClass() {
+        return Exchange.class;
+    }
+}
@@ -0,0 +1,10 @@
+package com.bookexchange.db;
+
+public enum ExchangeResult {
+    // Exchange recorded and the book claimed for it
+    CREATED,
+    // Another request claimed the book first, nothing was written
+    ALREADY_TAKEN,
+    // The database rejected the request, see the log for details
+    FAILED
+}
@@ -0,0 +1,636 @@
+package com.bookexchange.db;
+
+import com.bookexchange.model.Book;
+import com.bookexchange.model.Exchange;
+import com.bookexchange.model.SystemStats;
+import com.bookexchange.model.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Keeps everything in concurrent maps, for tests, demos and as a zero-latency baseline.
+// Records are never handed out: reads return copies and writes replace the stored copy,
+// so a caller editing a returned object cannot change the store behind our back.
+// The secondary indexes only narrow the candidates; every read checks the record itself.
+// Every change to a stored record is reported to the *Stored/*Deleted hooks while the record's
+// key is still locked, so a subclass sees the changes to one record in the order they were made.
+// A claim or release is reported as one change together with its exchange.
+public class InMemoryDatabaseManager implements DatabaseManager {
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Map<String, Book> books = new ConcurrentHashMap<>();
+    private final Map<String, Exchange> exchanges = new ConcurrentHashMap<>();
+
+    private final Map<String, String> userIdsByUsername = new ConcurrentHashMap<>();
+    private final Set<String> emails = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<String>> bookIdsByOwner = new ConcurrentHashMap<>();
+    // Ordered numerically so keyset pages come out in id order like the SQL backend
+    private final ConcurrentSkipListSet<Long> availableBookIds = new ConcurrentSkipListSet<>();
+    private final Map<String, Set<String>> exchangeIdsByRequester = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> exchangeIdsByProvider = new ConcurrentHashMap<>();
+
+    // Report counters, kept up to date by every write
+    private final AtomicInteger userCount = new AtomicInteger();
+    private final AtomicInteger bookCount = new AtomicInteger();
+    private final AtomicInteger exchangeCount = new AtomicInteger();
+    private final Map<String, AtomicInteger> exchangeCountsByBook = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> exchangeCountsByUser = new ConcurrentHashMap<>();
+
+    private final AtomicLong userSequence = new AtomicLong();
+    private final AtomicLong bookSequence = new AtomicLong();
+    private final AtomicLong exchangeSequence = new AtomicLong();
+    private volatile boolean connected;
+
+    @Override
+    public void connect() {
+        connected = true;
+    }
+
+    @Override
+    public void disconnect() {
+        connected = false;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean authenticateUser(String username, String password) {
+        User user = findUser(username);
+        return user != null && user.getPassword() != null && user.getPassword().equals(password);
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        User user = findUser(username);
+        if (user == null) {
+            return null;
+        }
+        User copy = new User(user);
+        copy.setPassword(null);
+        return copy;
+    }
+
+    private User findUser(String username) {
+        String userId = username != null ? userIdsByUsername.get(username) : null;
+        return userId != null ? users.get(userId) : null;
+    }
+
+    @Override
+    public boolean registerUser(User user) {
+        if (user.getUsername() == null || user.getEmail() == null) {
+            return false;
+        }
+
+        String userId = String.valueOf(userSequence.incrementAndGet());
+        // Both claims succeed for exactly one caller, like the unique keys on users
+        if (userIdsByUsername.putIfAbsent(user.getUsername(), userId) != null) {
+            return false;
+        }
+        if (!emails.add(user.getEmail())) {
+            userIdsByUsername.remove(user.getUsername());
+            return false;
+        }
+
+        User stored = new User(user);
+        stored.setId(userId);
+        try {
+            userStored(stored);
+        } catch (RuntimeException e) {
+            emails.remove(user.getEmail());
+            userIdsByUsername.remove(user.getUsername());
+            throw e;
+        }
+        users.put(userId, stored);
+        userCount.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public boolean updateUser(User user) {
+        if (user.getId() == null || user.getEmail() == null) {
+            return false;
+        }
+
+        boolean[] updated = new boolean[1];
+        users.computeIfPresent(user.getId(), (id, stored) -> {
+            // A new email is claimed before the old one is let go, so two users can never end up sharing one
+            boolean emailChanged = !user.getEmail().equals(stored.getEmail());
+            if (emailChanged && !emails.add(user.getEmail())) {
+                return stored;
+            }
+            if (emailChanged) {
+                emails.remove(stored.getEmail());
+            }
+            User copy = new User(stored);
+            copy.setEmail(user.getEmail());
+            copy.setFullName(user.getFullName());
+            copy.setAddress(user.getAddress());
+            try {
+                userStored(copy);
+            } catch (RuntimeException e) {
+                if (emailChanged) {
+                    emails.remove(user.getEmail());
+                    emails.add(stored.getEmail());
+                }
+                throw e;
+            }
+            updated[0] = true;
+            return copy;
+        });
+        return updated[0];
+    }
+
+    @Override
+    public List<Book> getAllBooks() {
+        List<Book> result = new ArrayList<>();
+        streamAllBooks(result::add);
+        return result;
+    }
+
+    @Override
+    public void streamAllBooks(Consumer<Book> consumer) {
+        for (Long bookId : availableBookIds) {
+            Book book = books.get(String.valueOf(bookId));
+            if (book != null && book.isAvailable()) {
+                consumer.accept(withOwnerName(book));
+            }
+        }
+    }
+
+    @Override
+    public List<Book> getAvailableBooksPage(String afterBookId, int pageSize, String excludeOwnerId) {
+        List<Book> page = new ArrayList<>();
+        Set<Long> candidates = afterBookId != null
+                ? availableBookIds.tailSet(Long.parseLong(afterBookId), false)
+                : availableBookIds;
+
+        for (Long bookId : candidates) {
+            if (page.size() >= pageSize) {
+                break;
+            }
+            Book book = books.get(String.valueOf(bookId));
+            if (book != null && book.isAvailable() && !book.getOwnerId().equals(excludeOwnerId)) {
+                page.add(withOwnerName(book));
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public Book getBookById(String bookId) {
+        Book book = bookId != null ? books.get(bookId) : null;
+        return book != null ? withOwnerName(book) : null;
+    }
+
+    @Override
+    public List<Book> getBooksByIds(Collection<String> bookIds) {
+        List<Book> result = new ArrayList<>();
+        for (String bookId : new HashSet<>(bookIds)) {
+            Book book = getBookById(bookId);
+            if (book != null) {
+                result.add(book);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<Book> getBooksByUser(String username) {
+        List<Book> result = new ArrayList<>();
+        streamBooksByUser(username, result::add);
+        return result;
+    }
+
+    @Override
+    public void streamBooksByUser(String username, Consumer<Book> consumer) {
+        String userId = username != null ? userIdsByUsername.get(username) : null;
+        if (userId == null) {
+            return;
+        }
+        for (String bookId : bookIdsByOwner.getOrDefault(userId, Set.of())) {
+            Book book = books.get(bookId);
+            if (book != null && userId.equals(book.getOwnerId())) {
+                consumer.accept(new Book(book));
+            }
+        }
+    }
+
+    @Override
+    public boolean addBook(Book book) {
+        return insertBook(book);
+    }
+
+    private boolean insertBook(Book book) {
+        // The owner has to exist, as the foreign key requires in the SQL backend
+        if (book.getOwnerId() == null || !users.containsKey(book.getOwnerId())) {
+            return false;
+        }
+
+        long bookId = bookSequence.incrementAndGet();
+        Book stored = new Book(book);
+        stored.setId(String.valueOf(bookId));
+        stored.setOwnerName(null);
+        stored.setAvailable(true);
+        stored.setExchangeCount(0);
+
+        // Reported before the book becomes visible, nothing can change it in between
+        bookStored(stored);
+        bookIdsByOwner.computeIfAbsent(stored.getOwnerId(), id -> ConcurrentHashMap.newKeySet())
+                .add(stored.getId());
+        books.put(stored.getId(), stored);
+        availableBookIds.add(bookId);
+        bookCount.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public BulkInsertResult addBooks(List<Book> bookList) {
+        BulkInsertResult result = new BulkInsertResult();
+        for (int i = 0; i < bookList.size(); i++) {
+            Book book = bookList.get(i);
+            if (insertBook(book)) {
+                result.addInserted(1);
+            } else {
+                result.addFailure(i, "Unknown owner id: " + book.getOwnerId());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean updateBook(Book book) {
+        if (book.getId() == null) {
+            return false;
+        }
+
+        Book updated = books.computeIfPresent(book.getId(), (id, stored) -> {
+            Book copy = new Book(stored);
+            copy.setTitle(book.getTitle());
+            copy.setAuthor(book.getAuthor());
+            copy.setIsbn(book.getIsbn());
+            copy.setDescription(book.getDescription());
+            copy.setCondition(book.getCondition());
+            // Availability belongs to the exchange flow, so the edit keeps the stored value
+            bookStored(copy);
+            return copy;
+        });
+        return updated != null;
+    }
+
+    @Override
+    public boolean deleteBook(String bookId) {
+        if (bookId == null) {
+            return false;
+        }
+
+        Book[] removed = new Book[1];
+        books.computeIfPresent(bookId, (id, stored) -> {
+            // Books with exchanges stay, as the foreign key from exchanges requires in the SQL backend.
+            // Claims count their exchange under the same key, so none can slip in between
+            if (exchangeCountOf(exchangeCountsByBook, bookId) > 0) {
+                return stored;
+            }
+            bookDeleted(bookId);
+            removed[0] = stored;
+            availableBookIds.remove(Long.parseLong(bookId));
+            return null;
+        });
+        if (removed[0] == null) {
+            return false;
+        }
+
+        Set<String> ownerBooks = bookIdsByOwner.get(removed[0].getOwnerId());
+        if (ownerBooks != null) {
+            ownerBooks.remove(bookId);
+        }
+        bookCount.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public List<Exchange> getExchangesByUser(String username) {
+        return getExchangesByUser(username, null, 0);
+    }
+
+    @Override
+    public List<Exchange> getExchangesByUser(String username, String status, int limit) {
+        String userId = username != null ? userIdsByUsername.get(username) : null;
+        if (userId == null) {
+            return new ArrayList<>();
+        }
+
+        Set<String> exchangeIds = new HashSet<>(exchangeIdsByRequester.getOrDefault(userId, Set.of()));
+        exchangeIds.addAll(exchangeIdsByProvider.getOrDefault(userId, Set.of()));
+
+        List<Exchange> result = new ArrayList<>();
+        for (String exchangeId : exchangeIds) {
+            Exchange exchange = exchanges.get(exchangeId);
+            if (exchange != null && (status == null || status.equals(exchange.getStatus()))) {
+                result.add(exchange);
+            }
+        }
+
+        // Newest first, ties broken by id so the order is stable
+        result.sort(Comparator.comparing(Exchange::getRequestDate).reversed()
+                .thenComparing(exchange -> Long.parseLong(exchange.getId()), Comparator.reverseOrder()));
+        if (limit > 0 && result.size() > limit) {
+            result = new ArrayList<>(result.subList(0, limit));
+        }
+        result.replaceAll(this::withNames);
+        return result;
+    }
+
+    @Override
+    public void streamExchangesByUser(String username, Consumer<Exchange> consumer) {
+        getExchangesByUser(username).forEach(consumer);
+    }
+
+    @Override
+    public Exchange getExchangeById(String exchangeId) {
+        Exchange exchange = exchangeId != null ? exchanges.get(exchangeId) : null;
+        return exchange != null ? withNames(exchange) : null;
+    }
+
+    @Override
+    public ExchangeResult createExchange(Exchange exchange) {
+        if (exchange.getRequesterId() == null || !users.containsKey(exchange.getRequesterId()) ||
+                exchange.getProviderId() == null || !users.containsKey(exchange.getProviderId())) {
+            return ExchangeResult.FAILED;
+        }
+
+        Exchange stored = new Exchange();
+        stored.setId(String.valueOf(exchangeSequence.incrementAndGet()));
+        stored.setRequesterId(exchange.getRequesterId());
+        stored.setProviderId(exchange.getProviderId());
+        stored.setBookId(exchange.getBookId());
+        stored.setStatus("PENDING");
+        stored.setRequestDate(new Date());
+
+        if (!claimBook(stored)) {
+            return ExchangeResult.ALREADY_TAKEN;
+        }
+
+        exchanges.put(stored.getId(), stored);
+        exchangeIdsByRequester.computeIfAbsent(stored.getRequesterId(), id -> ConcurrentHashMap.newKeySet())
+                .add(stored.getId());
+        exchangeIdsByProvider.computeIfAbsent(stored.getProviderId(), id -> ConcurrentHashMap.newKeySet())
+                .add(stored.getId());
+
+        exchangeCount.incrementAndGet();
+        exchangeCountsByUser.computeIfAbsent(stored.getRequesterId(), id -> new AtomicInteger()).incrementAndGet();
+        // Requesting your own book still counts once
+        if (!stored.getProviderId().equals(stored.getRequesterId())) {
+            exchangeCountsByUser.computeIfAbsent(stored.getProviderId(), id -> new AtomicInteger()).incrementAndGet();
+        }
+        return ExchangeResult.CREATED;
+    }
+
+    // compute runs atomically per key, so of any number of racing callers exactly one sees the book available.
+    // The exchange is reported together with the claimed book and counted under the book's key
+    private boolean claimBook(Exchange exchange) {
+        if (exchange.getBookId() == null) {
+            return false;
+        }
+        boolean[] claimed = new boolean[1];
+        books.computeIfPresent(exchange.getBookId(), (id, stored) -> {
+            if (!stored.isAvailable()) {
+                return stored;
+            }
+            Book copy = new Book(stored);
+            copy.setAvailable(false);
+            exchangeStored(exchange, copy);
+            indexAvailability(copy);
+            exchangeCountsByBook.computeIfAbsent(id, key -> new AtomicInteger()).incrementAndGet();
+            claimed[0] = true;
+            return copy;
+        });
+        return claimed[0];
+    }
+
+    @Override
+    public boolean updateExchangeStatus(String exchangeId, String status) {
+        if (exchangeId == null) {
+            return false;
+        }
+
+        Exchange updated = exchanges.computeIfPresent(exchangeId, (id, stored) -> {
+            Exchange copy = new Exchange(stored);
+            copy.setStatus(status);
+            if ("COMPLETED".equals(status)) {
+                copy.setCompletionDate(new Date());
+            }
+
+            // Only the first cancellation releases the book; a repeated one must not free a book someone claimed since
+            Book released = null;
+            if ("CANCELLED".equals(status) && !"CANCELLED".equals(stored.getStatus())) {
+                released = books.computeIfPresent(copy.getBookId(), (bookId, book) -> {
+                    Book bookCopy = new Book(book);
+                    bookCopy.setAvailable(true);
+                    exchangeStored(copy, bookCopy);
+                    indexAvailability(bookCopy);
+                    return bookCopy;
+                });
+            }
+            if (released == null) {
+                exchangeStored(copy, null);
+            }
+            return copy;
+        });
+        return updated != null;
+    }
+
+    private void indexAvailability(Book book) {
+        long bookId = Long.parseLong(book.getId());
+        if (book.isAvailable()) {
+            availableBookIds.add(bookId);
+        } else {
+            availableBookIds.remove(bookId);
+        }
+    }
+
+    @Override
+    public List<Book> getMostExchangedBooks(int limit) {
+        List<Book> result = new ArrayList<>();
+        List<Map.Entry<String, AtomicInteger>> ranked = new ArrayList<>(exchangeCountsByBook.entrySet());
+        ranked.sort(Comparator.comparing((Map.Entry<String, AtomicInteger> entry) -> entry.getValue().get())
+                .reversed()
+                .thenComparing(entry -> Long.parseLong(entry.getKey())));
+
+        for (Map.Entry<String, AtomicInteger> entry : ranked) {
+            if (result.size() >= limit) {
+                break;
+            }
+            Book book = books.get(entry.getKey());
+            if (book != null && entry.getValue().get() > 0) {
+                Book copy = withOwnerName(book);
+                copy.setExchangeCount(entry.getValue().get());
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<User> getMostActiveUsers(int limit) {
+        // Users without exchanges are ranked too, at zero, like the LEFT JOIN in the SQL backend
+        List<User> result = new ArrayList<>();
+        users.values().stream()
+                .sorted(Comparator.comparing((User user) -> exchangeCountOf(exchangeCountsByUser, user.getId())).reversed()
+                        .thenComparing(user -> Long.parseLong(user.getId())))
+                .limit(limit)
+                .forEach(user -> {
+                    User copy = new User(user);
+                    copy.setPassword(null);
+                    copy.setAddress(null);
+                    copy.setExchangeCount(exchangeCountOf(exchangeCountsByUser, user.getId()));
+                    result.add(copy);
+                });
+        return result;
+    }
+
+    private int exchangeCountOf(Map<String, AtomicInteger> counts, String id) {
+        AtomicInteger count = counts.get(id);
+        return count != null ? count.get() : 0;
+    }
+
+    @Override
+    public int getTotalExchanges() {
+        return exchangeCount.get();
+    }
+
+    @Override
+    public int getTotalBooks() {
+        return bookCount.get();
+    }
+
+    @Override
+    public int getTotalUsers() {
+        return userCount.get();
+    }
+
+    @Override
+    public SystemStats getSystemStats() {
+        return new SystemStats(bookCount.get(), userCount.get(), exchangeCount.get());
+    }
+
+    @Override
+    public SystemStats reconcileSystemStats() {
+        bookCount.set(books.size());
+        userCount.set(users.size());
+        exchangeCount.set(exchanges.size());
+        return getSystemStats();
+    }
+
+    // Change hooks; a hook that throws aborts the change before it becomes visible
+    protected void userStored(User user) {
+    }
+
+    protected void bookStored(Book book) {
+    }
+
+    protected void bookDeleted(String bookId) {
+    }
+
+    // book is the book claimed or released by the same change, null when the change leaves it alone
+    protected void exchangeStored(Exchange exchange, Book book) {
+    }
+
+    // The stored records as they are right now. They are never modified in place, so a subclass can
+    // keep them around, e.g. to write a snapshot, without copying
+    protected List<User> storedUsers() {
+        return new ArrayList<>(users.values());
+    }
+
+    protected List<Book> storedBooks() {
+        return new ArrayList<>(books.values());
+    }
+
+    protected List<Exchange> storedExchanges() {
+        return new ArrayList<>(exchanges.values());
+    }
+
+    // Restore methods load a record as reported by a hook, rebuilding the indexes and counters.
+    // They are meant for recovery before the manager is used and bypass the checks and hooks
+    protected void restoreUser(User user) {
+        User previous = users.put(user.getId(), user);
+        if (previous != null) {
+            emails.remove(previous.getEmail());
+        } else {
+            userCount.incrementAndGet();
+        }
+        userIdsByUsername.put(user.getUsername(), user.getId());
+        emails.add(user.getEmail());
+        advance(userSequence, user.getId());
+    }
+
+    protected void restoreBook(Book book) {
+        if (books.put(book.getId(), book) == null) {
+            bookCount.incrementAndGet();
+        }
+        bookIdsByOwner.computeIfAbsent(book.getOwnerId(), id -> ConcurrentHashMap.newKeySet()).add(book.getId());
+        indexAvailability(book);
+        advance(bookSequence, book.getId());
+    }
+
+    protected void restoreBookDeletion(String bookId) {
+        Book removed = books.remove(bookId);
+        if (removed != null) {
+            availableBookIds.remove(Long.parseLong(bookId));
+            bookIdsByOwner.getOrDefault(removed.getOwnerId(), new HashSet<>()).remove(bookId);
+            bookCount.decrementAndGet();
+        }
+    }
+
+    protected void restoreExchange(Exchange exchange) {
+        if (exchanges.put(exchange.getId(), exchange) != null) {
+            return;
+        }
+        exchangeIdsByRequester.computeIfAbsent(exchange.getRequesterId(), id -> ConcurrentHashMap.newKeySet())
+                .add(exchange.getId());
+        exchangeIdsByProvider.computeIfAbsent(exchange.getProviderId(), id -> ConcurrentHashMap.newKeySet())
+                .add(exchange.getId());
+        exchangeCount.incrementAndGet();
+        exchangeCountsByBook.computeIfAbsent(exchange.getBookId(), id -> new AtomicInteger()).incrementAndGet();
+        exchangeCountsByUser.computeIfAbsent(exchange.getRequesterId(), id -> new AtomicInteger()).incrementAndGet();
+        if (!exchange.getProviderId().equals(exchange.getRequesterId())) {
+            exchangeCountsByUser.computeIfAbsent(exchange.getProviderId(), id -> new AtomicInteger()).incrementAndGet();
+        }
+        advance(exchangeSequence, exchange.getId());
+    }
+
+    // New ids continue after the highest one restored
+    private void advance(AtomicLong sequence, String id) {
+        sequence.accumulateAndGet(Long.parseLong(id), Math::max);
+    }
+
+    private Book withOwnerName(Book book) {
+        Book copy = new Book(book);
+        User owner = users.get(book.getOwnerId());
+        copy.setOwnerName(owner != null ? owner.getUsername() : null);
+        return copy;
+    }
+
+    private Exchange withNames(Exchange exchange) {
+        Exchange copy = new Exchange(exchange);
+        Book book = books.get(exchange.getBookId());
+        User requester = users.get(exchange.getRequesterId());
+        User provider = users.get(exchange.getProviderId());
+        copy.setBookTitle(book != null ? book.getTitle() : null);
+        copy.setRequesterName(requester != null ? requester.getUsername() : null);
+        copy.setProviderName(provider != null ? provider.getUsername() : null);
+        return copy;
+    }
+}
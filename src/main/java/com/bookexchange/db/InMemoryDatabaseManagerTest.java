@@ -0,0 +1,189 @@
+package com.bookexchange.db;
+
+import com.bookexchange.model.Book;
+import com.bookexchange.model.Exchange;
+import com.bookexchange.model.SystemStats;
+import com.bookexchange.model.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InMemoryDatabaseManagerTest {
+    private DatabaseManager dbManager;
+    private User owner;
+    private User requester;
+
+    @Before
+    public void setUp() {
+        dbManager = new InMemoryDatabaseManager();
+        dbManager.connect();
+
+        dbManager.registerUser(new User("owner", "password", "owner@example.com", "Owner User", "1 Test St"));
+        dbManager.registerUser(new User("requester", "password", "requester@example.com", "Requester User", "2 Test St"));
+        owner = dbManager.getUserByUsername("owner");
+        requester = dbManager.getUserByUsername("requester");
+    }
+
+    @After
+    public void tearDown() {
+        dbManager.disconnect();
+    }
+
+    @Test
+    public void testUniqueUsernameAndEmail() {
+        assertFalse(dbManager.registerUser(new User("owner", "other", "other@example.com", "Other", "3 Test St")));
+        assertFalse(dbManager.registerUser(new User("other", "other", "owner@example.com", "Other", "3 Test St")));
+        assertTrue(dbManager.authenticateUser("owner", "password"));
+        assertFalse(dbManager.authenticateUser("owner", "wrongpassword"));
+        assertEquals(2, dbManager.getTotalUsers());
+    }
+
+    @Test
+    public void testReturnedRecordsAreCopies() {
+        assertTrue(dbManager.addBook(new Book("Copied Book", "Author", "1000000001", "Desc", "Good", owner.getId())));
+        Book book = dbManager.getBooksByUser("owner").get(0);
+        book.setTitle("Changed Outside");
+
+        assertEquals("Copied Book", dbManager.getBookById(book.getId()).getTitle());
+        assertEquals("owner", dbManager.getBookById(book.getId()).getOwnerName());
+    }
+
+    @Test
+    public void testAvailablePagesFollowClaimsAndReleases() {
+        for (int i = 0; i < 5; i++) {
+            dbManager.addBook(new Book("Book " + i, "Author", "200000000" + i, "Desc", "Good", owner.getId()));
+        }
+
+        List<Book> firstPage = dbManager.getAvailableBooksPage(null, 3, requester.getId());
+        assertEquals(3, firstPage.size());
+        List<Book> secondPage = dbManager.getAvailableBooksPage(firstPage.get(2).getId(), 3, requester.getId());
+        assertEquals(2, secondPage.size());
+        assertTrue(dbManager.getAvailableBooksPage(null, 10, owner.getId()).isEmpty());
+
+        Exchange exchange = newExchange(firstPage.get(0).getId());
+        assertEquals(ExchangeResult.CREATED, dbManager.createExchange(exchange));
+        assertEquals(4, dbManager.getAllBooks().size());
+
+        String exchangeId = dbManager.getExchangesByUser("requester").get(0).getId();
+        assertTrue(dbManager.updateExchangeStatus(exchangeId, "CANCELLED"));
+        assertEquals(5, dbManager.getAllBooks().size());
+    }
+
+    @Test
+    public void testReportsAndCountersFollowExchanges() {
+        dbManager.addBook(new Book("Popular Book", "Author", "3000000001", "Desc", "Good", owner.getId()));
+        dbManager.addBook(new Book("Quiet Book", "Author", "3000000002", "Desc", "Good", owner.getId()));
+        String bookId = dbManager.getAvailableBooksPage(null, 1, null).get(0).getId();
+
+        assertEquals(ExchangeResult.CREATED, dbManager.createExchange(newExchange(bookId)));
+        String exchangeId = dbManager.getExchangesByUser("owner").get(0).getId();
+        assertTrue(dbManager.updateExchangeStatus(exchangeId, "CANCELLED"));
+        assertEquals(ExchangeResult.CREATED, dbManager.createExchange(newExchange(bookId)));
+
+        List<Book> mostExchanged = dbManager.getMostExchangedBooks(5);
+        assertEquals(1, mostExchanged.size());
+        assertEquals("Popular Book", mostExchanged.get(0).getTitle());
+        assertEquals(2, mostExchanged.get(0).getExchangeCount());
+
+        List<User> mostActive = dbManager.getMostActiveUsers(5);
+        assertEquals(2, mostActive.size());
+        assertEquals(2, mostActive.get(0).getExchangeCount());
+
+        List<Exchange> history = dbManager.getExchangesByUser("requester", "PENDING", 0);
+        assertEquals(1, history.size());
+        assertEquals("Popular Book", history.get(0).getBookTitle());
+        assertEquals("owner", history.get(0).getProviderName());
+
+        // A book with exchanges stays, as it does behind the SQL foreign key
+        assertFalse(dbManager.deleteBook(bookId));
+
+        SystemStats stats = dbManager.getSystemStats();
+        assertEquals(2, stats.getTotalBooks());
+        assertEquals(2, stats.getTotalExchanges());
+        SystemStats reconciled = dbManager.reconcileSystemStats();
+        assertEquals(stats.getTotalBooks(), reconciled.getTotalBooks());
+        assertEquals(stats.getTotalUsers(), reconciled.getTotalUsers());
+        assertEquals(stats.getTotalExchanges(), reconciled.getTotalExchanges());
+    }
+
+    @Test
+    public void testConcurrentExchangeRequestsClaimBookOnce() throws Exception {
+        dbManager.addBook(new Book("Contended Book", "Author", "4000000001", "Desc", "Good", owner.getId()));
+        String bookId = dbManager.getBooksByUser("owner").get(0).getId();
+
+        int requests = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ExchangeResult>> results = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            results.add(executor.submit(() -> {
+                Exchange exchange = newExchange(bookId);
+                start.await();
+                return dbManager.createExchange(exchange);
+            }));
+        }
+        start.countDown();
+
+        int created = 0;
+        for (Future<ExchangeResult> result : results) {
+            if (result.get(30, TimeUnit.SECONDS) == ExchangeResult.CREATED) {
+                created++;
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(1, created);
+        assertEquals(1, dbManager.getTotalExchanges());
+    }
+
+    @Test
+    public void testDeleteRacingARequestNeverOrphansTheExchange() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 200; i++) {
+                dbManager.addBook(new Book("Raced Book " + i, "Author", "5000000001", "Desc", "Good", owner.getId()));
+                String bookId = dbManager.getAvailableBooksPage(null, 1, null).get(0).getId();
+
+                CountDownLatch start = new CountDownLatch(1);
+                Future<ExchangeResult> request = executor.submit(() -> {
+                    Exchange exchange = newExchange(bookId);
+                    start.await();
+                    return dbManager.createExchange(exchange);
+                });
+                Future<Boolean> delete = executor.submit(() -> {
+                    start.await();
+                    return dbManager.deleteBook(bookId);
+                });
+                start.countDown();
+
+                // Exactly one side wins: a deleted book has no exchange, a requested book stays and is taken
+                boolean created = request.get(30, TimeUnit.SECONDS) == ExchangeResult.CREATED;
+                assertNotEquals(created, delete.get(30, TimeUnit.SECONDS));
+                if (created) {
+                    assertNotNull(dbManager.getBookById(bookId));
+                    assertTrue(dbManager.getAvailableBooksPage(null, 10, null).isEmpty());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private Exchange newExchange(String bookId) {
+        Exchange exchange = new Exchange();
+        exchange.setRequesterId(requester.getId());
+        exchange.setProviderId(owner.getId());
+        exchange.setBookId(bookId);
+        return exchange;
+    }
+}
@@ -0,0 +1,70 @@
+package com.bookexchange.db;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+
+import java.util.Date;
+
+// Shared field readers for the codecs that decode MongoDB documents straight into the model classes
+public abstract class ModelCodec<T> implements Codec<T> {
+
+    protected String readId(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case OBJECT_ID:
+                return reader.readObjectId().toHexString();
+            case NULL:
+                reader.readNull();
+                return null;
+            default:
+                return readString(reader);
+        }
+    }
+
+    protected String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.STRING) {
+            return reader.readString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    protected int readInt(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return (int) reader.readInt64();
+            case DOUBLE:
+                return (int) reader.readDouble();
+            default:
+                reader.skipValue();
+                return 0;
+        }
+    }
+
+    protected boolean readBoolean(BsonReader reader, boolean defaultValue) {
+        if (reader.getCurrentBsonType() == BsonType.BOOLEAN) {
+            return reader.readBoolean();
+        }
+        reader.skipValue();
+        return defaultValue;
+    }
+
+    protected Date readDate(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.DATE_TIME) {
+            return new Date(reader.readDateTime());
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    // Writes build their documents with the update operators they need, so these codecs only ever decode.
+    // MongoDBManager registers them on its read handles only, never on the database
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+        throw new UnsupportedOperationException(getEncoderClass().getSimpleName() + " documents are written as Documents");
+    }
+}
@@ -3,28 +3,103 @@ package com.bookexchange.db;
 import com.bookexchange.config.ConfigManager;
 import com.bookexchange.model.Book;
 import com.bookexchange.model.Exchange;
+import com.bookexchange.model.SystemStats;
 import com.bookexchange.model.User;
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoCompressor;
+import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
+import com.mongodb.TransactionOptions;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
-import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Field;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.Sorts;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.Variable;
 import com.mongodb.client.model.Accumulators;
+import com.mongodb.connection.ConnectionPoolSettings;
+import com.mongodb.connection.SocketSettings;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class MongoDBManager implements DatabaseManager {
+    private static final String STATS_ID = "system_stats";
+    // Present in counters once every existing document carries its denormalized copies
+    private static final String DENORMALIZED_MARKER_ID = "denormalized";
+    // List views show summary columns only; a book's details are read by id. addedDate is never shown
+    private static final Bson BOOK_SUMMARY = Projections.exclude("description", "addedDate");
+    private static final Bson BOOK_DETAILS = Projections.exclude("addedDate");
+
+    // The model codecs only decode, so they are kept to the read handles below and out of the database registry
+    private static final CodecRegistry MODEL_CODECS = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new BookCodec(), new UserCodec(), new ExchangeCodec()),
+            MongoClientSettings.getDefaultCodecRegistry());
+
     private MongoClient mongoClient;
     private MongoDatabase database;
+    // Looked up once per connection
+    private MongoCollection<Document> usersCollection;
+    private MongoCollection<Document> booksCollection;
+    private MongoCollection<Document> exchangesCollection;
+    private MongoCollection<Document> countersCollection;
+    // Reads decode straight into the model classes through these; writes always go through the Document handles
+    private MongoCollection<User> userReads;
+    private MongoCollection<Book> bookReads;
+    private MongoCollection<Exchange> exchangeReads;
+    private int fetchSize = 100;
+    private int batchSize = 500;
+    // Multi-document transactions need a replica set or a sharded cluster
+    private boolean transactionsSupported;
+    private ReadPreference reportsReadPreference = ReadPreference.primary();
+    private WriteConcern exchangeWriteConcern = WriteConcern.ACKNOWLEDGED;
+    // Books carry ownerName and exchanges carry bookTitle, requesterName and providerName, so reads need no joins
+    private boolean denormalized;
+    // Writes keep the copies up to date as soon as the mode is on; reads rely on them only after the backfill
+    private volatile boolean denormalizedReads;
+    private ScheduledExecutorService denormalizedChecker;
+    // Extra client settings such as command listeners, applied after the configured ones
+    private final List<Consumer<MongoClientSettings.Builder>> settingsCustomizers = new ArrayList<>();
 
     @Override
     public void connect() {
@@ -42,14 +117,455 @@ public class MongoDBManager implements DatabaseManager {
             uri = "mongodb://" + host + ":" + port;
         }
 
-        mongoClient = MongoClients.create(uri);
-        database = mongoClient.getDatabase(dbName);
+        fetchSize = config.getIntProperty(ConfigManager.DB_FETCH_SIZE, 100);
+        batchSize = Math.max(1, config.getIntProperty(ConfigManager.DB_BATCH_SIZE, 500));
+        denormalized = "true".equalsIgnoreCase(config.getProperty(ConfigManager.DB_MONGO_DENORMALIZED));
+        MongoClientSettings settings = buildClientSettings(config, uri);
+        reportsReadPreference = parseReadPreference(config.getProperty(ConfigManager.DB_MONGO_REPORTS_READ_PREFERENCE),
+                settings.getReadPreference());
+        exchangeWriteConcern = parseWriteConcern(config.getProperty(ConfigManager.DB_MONGO_EXCHANGE_WRITE_CONCERN),
+                settings.getWriteConcern());
+        logClientSettings(settings);
+        try {
+            mongoClient = MongoClients.create(settings);
+            database = mongoClient.getDatabase(dbName);
+            usersCollection = database.getCollection("users");
+            booksCollection = database.getCollection("books");
+            exchangesCollection = database.getCollection("exchanges").withWriteConcern(exchangeWriteConcern);
+            countersCollection = database.getCollection("counters");
+            userReads = database.getCollection("users", User.class).withCodecRegistry(MODEL_CODECS);
+            bookReads = database.getCollection("books", Book.class).withCodecRegistry(MODEL_CODECS);
+            exchangeReads = database.getCollection("exchanges", Exchange.class).withCodecRegistry(MODEL_CODECS);
+            // The first server call; an unreachable server fails here after one server selection timeout
+            transactionsSupported = detectTransactionSupport();
+            ensureIndexes();
+            // Counter updates never create the stats document, so it must hold real counts before the first write
+            if (countersCollection.find(Filters.eq("_id", STATS_ID)).first() == null) {
+                reconcileSystemStats();
+            }
+            if (denormalized) {
+                denormalizedReads = countersCollection.find(Filters.eq("_id", DENORMALIZED_MARKER_ID)).first() != null;
+            } else {
+                // Copies are not maintained while the mode is off, switching it back on must backfill again
+                denormalizedReads = false;
+                countersCollection.deleteOne(Filters.eq("_id", DENORMALIZED_MARKER_ID));
+            }
+        } catch (Exception e) {
+            System.err.println("Error connecting to MongoDB database: " + e.getMessage());
+            e.printStackTrace();
+            if (mongoClient != null) {
+                mongoClient.close();
+                mongoClient = null;
+            }
+            return;
+        }
+
+        if (denormalized) {
+            denormalizedChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "mongodb-denormalized-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // The first time the mode is switched on the copies are backfilled once, off the calling thread;
+            // reads keep joining until that has finished
+            if (!denormalizedReads) {
+                denormalizedChecker.execute(this::backfillDenormalizedFields);
+            }
+            long checkIntervalMillis = config.getLongProperty(ConfigManager.DB_MONGO_DENORMALIZED_CHECK_INTERVAL_MS, 0);
+            if (checkIntervalMillis > 0) {
+                denormalizedChecker.scheduleWithFixedDelay(this::reconcileDenormalizedFields,
+                        checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void backfillDenormalizedFields() {
+        try {
+            long start = System.currentTimeMillis();
+            int repaired = repairDenormalizedFields();
+            countersCollection.replaceOne(Filters.eq("_id", DENORMALIZED_MARKER_ID),
+                    new Document("_id", DENORMALIZED_MARKER_ID).append("backfilled", true),
+                    new ReplaceOptions().upsert(true));
+            denormalizedReads = true;
+            System.out.println("Backfilled denormalized names on " + repaired + " MongoDB documents in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            // Reads keep joining; the next connect tries again
+            System.err.println("Error backfilling denormalized MongoDB fields: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Takes effect on the next connect; DatabaseBenchmark uses it to count the commands each read sends
+    public void addClientSettingsCustomizer(Consumer<MongoClientSettings.Builder> customizer) {
+        settingsCustomizers.add(customizer);
+    }
+
+    public boolean isDenormalized() {
+        return denormalized;
+    }
+
+    // Rewrites every copied name that no longer matches its source and returns how many documents were fixed.
+    // A copy whose source document is gone is left as it is
+    public int reconcileDenormalizedFields() {
+        try {
+            int repaired = repairDenormalizedFields();
+            if (repaired > 0) {
+                System.out.println("Repaired denormalized names on " + repaired + " MongoDB documents");
+            }
+            return repaired;
+        } catch (Exception e) {
+            System.err.println("Error checking denormalized MongoDB fields: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    private int repairDenormalizedFields() {
+        int repaired = 0;
+        List<Bson> bookPipeline = new ArrayList<>();
+        bookPipeline.add(Aggregates.project(Projections.include("ownerId", "ownerName")));
+        bookPipeline.addAll(joinFieldStages("users", "ownerId", "username", "expectedOwnerName"));
+        bookPipeline.add(Aggregates.match(Filters.expr(driftCondition("ownerName", "expectedOwnerName"))));
+        repaired += repairDrift(booksCollection, bookPipeline, "ownerName");
+
+        List<Bson> exchangePipeline = new ArrayList<>();
+        exchangePipeline.add(Aggregates.project(Projections.include(
+                "bookId", "requesterId", "providerId", "bookTitle", "requesterName", "providerName")));
+        exchangePipeline.addAll(joinFieldStages("books", "bookId", "title", "expectedBookTitle"));
+        exchangePipeline.addAll(joinFieldStages("users", "requesterId", "username", "expectedRequesterName"));
+        exchangePipeline.addAll(joinFieldStages("users", "providerId", "username", "expectedProviderName"));
+        exchangePipeline.add(Aggregates.match(Filters.expr(new Document("$or", Arrays.asList(
+                driftCondition("bookTitle", "expectedBookTitle"),
+                driftCondition("requesterName", "expectedRequesterName"),
+                driftCondition("providerName", "expectedProviderName"))))));
+        repaired += repairDrift(exchangesCollection, exchangePipeline, "bookTitle", "requesterName", "providerName");
+        return repaired;
+    }
+
+    // $gt null is only true for a value that exists, so a deleted source never wipes out its copy
+    private Document driftCondition(String field, String expectedField) {
+        return new Document("$and", Arrays.asList(
+                new Document("$gt", Arrays.asList("$" + expectedField, null)),
+                new Document("$ne", Arrays.asList("$" + field, "$" + expectedField))));
+    }
+
+    // Applies the corrections in batches; each update only matches while the copy still holds the stale value
+    private int repairDrift(MongoCollection<Document> collection, List<Bson> pipeline, String... fields) {
+        int repaired = 0;
+        List<UpdateOneModel<Document>> updates = new ArrayList<>();
+        try (MongoCursor<Document> cursor = collection.aggregate(pipeline).batchSize(fetchSize).iterator()) {
+            while (cursor.hasNext()) {
+                Document doc = cursor.next();
+                List<Bson> filters = new ArrayList<>();
+                List<Bson> sets = new ArrayList<>();
+                filters.add(Filters.eq("_id", doc.get("_id")));
+                for (String field : fields) {
+                    String expectedField = "expected" + Character.toUpperCase(field.charAt(0)) + field.substring(1);
+                    Object expected = doc.get(expectedField);
+                    if (expected != null && !expected.equals(doc.get(field))) {
+                        filters.add(Filters.eq(field, doc.get(field)));
+                        sets.add(Updates.set(field, expected));
+                    }
+                }
+                updates.add(new UpdateOneModel<>(Filters.and(filters), Updates.combine(sets)));
+
+                if (updates.size() >= batchSize) {
+                    repaired += collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+                    updates.clear();
+                }
+            }
+        }
+        if (!updates.isEmpty()) {
+            repaired += collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+        }
+        return repaired;
+    }
+
+    // Usernames for the given user ids in one query
+    private Map<ObjectId, String> usernamesById(Collection<ObjectId> userIds) {
+        Map<ObjectId, String> usernames = new HashMap<>();
+        for (Document userDoc : usersCollection.find(Filters.in("_id", userIds))
+                .projection(Projections.include("username"))) {
+            usernames.put(userDoc.getObjectId("_id"), userDoc.getString("username"));
+        }
+        return usernames;
+    }
+
+    // Starts from the connection string and overrides whatever is configured; unset keys keep the driver defaults
+    private MongoClientSettings buildClientSettings(ConfigManager config, String uri) {
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(uri));
+
+        int maxPoolSize = config.getIntProperty(ConfigManager.DB_MONGO_POOL_MAX_SIZE, -1);
+        int minPoolSize = config.getIntProperty(ConfigManager.DB_MONGO_POOL_MIN_SIZE, -1);
+        long maxIdleMillis = config.getLongProperty(ConfigManager.DB_MONGO_POOL_MAX_IDLE_MS, -1);
+        long maxWaitMillis = config.getLongProperty(ConfigManager.DB_MONGO_POOL_MAX_WAIT_MS, -1);
+        builder.applyToConnectionPoolSettings(pool -> {
+            if (maxPoolSize > 0) {
+                pool.maxSize(maxPoolSize);
+            }
+            if (minPoolSize >= 0) {
+                pool.minSize(minPoolSize);
+            }
+            if (maxIdleMillis >= 0) {
+                pool.maxConnectionIdleTime(maxIdleMillis, TimeUnit.MILLISECONDS);
+            }
+            if (maxWaitMillis >= 0) {
+                pool.maxWaitTime(maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        int connectTimeoutMillis = config.getIntProperty(ConfigManager.DB_MONGO_CONNECT_TIMEOUT_MS, -1);
+        int readTimeoutMillis = config.getIntProperty(ConfigManager.DB_MONGO_READ_TIMEOUT_MS, -1);
+        builder.applyToSocketSettings(socket -> {
+            if (connectTimeoutMillis >= 0) {
+                socket.connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (readTimeoutMillis >= 0) {
+                socket.readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        long serverSelectionMillis = config.getLongProperty(ConfigManager.DB_MONGO_SERVER_SELECTION_TIMEOUT_MS, -1);
+        if (serverSelectionMillis >= 0) {
+            builder.applyToClusterSettings(cluster ->
+                    cluster.serverSelectionTimeout(serverSelectionMillis, TimeUnit.MILLISECONDS));
+        }
+
+        List<MongoCompressor> compressors = parseCompressors(config.getProperty(ConfigManager.DB_MONGO_COMPRESSORS));
+        if (!compressors.isEmpty()) {
+            builder.compressorList(compressors);
+        }
+
+        builder.readPreference(parseReadPreference(config.getProperty(ConfigManager.DB_MONGO_READ_PREFERENCE),
+                ReadPreference.primary()));
+        builder.writeConcern(parseWriteConcern(config.getProperty(ConfigManager.DB_MONGO_WRITE_CONCERN),
+                WriteConcern.ACKNOWLEDGED));
+        for (Consumer<MongoClientSettings.Builder> customizer : settingsCustomizers) {
+            customizer.accept(builder);
+        }
+        return builder.build();
+    }
+
+    private List<MongoCompressor> parseCompressors(String value) {
+        List<MongoCompressor> compressors = new ArrayList<>();
+        if (value == null || value.trim().isEmpty()) {
+            return compressors;
+        }
+
+        for (String name : value.split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "zstd":
+                    if (isOnClasspath("com.github.luben.zstd.Zstd")) {
+                        compressors.add(MongoCompressor.createZstdCompressor());
+                    } else {
+                        System.err.println("zstd compression needs zstd-jni on the classpath, skipping it");
+                    }
+                    break;
+                case "snappy":
+                    if (isOnClasspath("org.xerial.snappy.Snappy")) {
+                        compressors.add(MongoCompressor.createSnappyCompressor());
+                    } else {
+                        System.err.println("snappy compression needs snappy-java on the classpath, skipping it");
+                    }
+                    break;
+                case "zlib":
+                    compressors.add(MongoCompressor.createZlibCompressor());
+                    break;
+                case "":
+                    break;
+                default:
+                    System.err.println("Unknown MongoDB compressor: " + name.trim());
+            }
+        }
+        return compressors;
+    }
+
+    private boolean isOnClasspath(String className) {
+        try {
+            Class.forName(className);
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private ReadPreference parseReadPreference(String value, ReadPreference defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return ReadPreference.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid MongoDB read preference: " + value + ", using " + defaultValue.getName());
+            return defaultValue;
+        }
+    }
+
+    // Accepts "majority", a number of nodes or a named concern such as "acknowledged"
+    private WriteConcern parseWriteConcern(String value, WriteConcern defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        String name = value.trim();
+        if (name.equalsIgnoreCase("majority")) {
+            return WriteConcern.MAJORITY;
+        }
+        try {
+            return new WriteConcern(Integer.parseInt(name));
+        } catch (NumberFormatException e) {
+            WriteConcern named = WriteConcern.valueOf(name);
+            if (named == null) {
+                System.err.println("Invalid MongoDB write concern: " + value + ", using " + defaultValue);
+                return defaultValue;
+            }
+            return named;
+        }
+    }
+
+    private void logClientSettings(MongoClientSettings settings) {
+        ConnectionPoolSettings pool = settings.getConnectionPoolSettings();
+        SocketSettings socket = settings.getSocketSettings();
+        System.out.println("MongoDB client settings:");
+        System.out.println("  pool: min " + pool.getMinSize() + ", max " + pool.getMaxSize() +
+                ", max idle " + pool.getMaxConnectionIdleTime(TimeUnit.MILLISECONDS) + " ms" +
+                ", max wait " + pool.getMaxWaitTime(TimeUnit.MILLISECONDS) + " ms");
+        System.out.println("  timeouts: connect " + socket.getConnectTimeout(TimeUnit.MILLISECONDS) + " ms" +
+                ", read " + socket.getReadTimeout(TimeUnit.MILLISECONDS) + " ms" +
+                ", server selection " + settings.getClusterSettings().getServerSelectionTimeout(TimeUnit.MILLISECONDS) + " ms");
+        List<String> compressorNames = new ArrayList<>();
+        for (MongoCompressor compressor : settings.getCompressorList()) {
+            compressorNames.add(compressor.getName());
+        }
+        System.out.println("  compressors: " + (compressorNames.isEmpty() ? "none" : String.join(", ", compressorNames)));
+        System.out.println("  read preference: " + settings.getReadPreference().getName() +
+                ", reports " + reportsReadPreference.getName());
+        System.out.println("  write concern: " + settings.getWriteConcern().asDocument().toJson() +
+                ", exchanges " + exchangeWriteConcern.asDocument().toJson());
+    }
+
+    // Throws when the server cannot be reached, connect treats that as a failed connection. A server that
+    // answers but rejects the command is reachable and simply runs without transactions
+    private boolean detectTransactionSupport() {
+        try {
+            Document hello = database.runCommand(new Document("hello", 1));
+            boolean supported = hello.containsKey("setName") || "isdbgrid".equals(hello.getString("msg"));
+            System.out.println("MongoDB transactions " + (supported ? "enabled" : "not available on a standalone server"));
+            return supported;
+        } catch (MongoCommandException e) {
+            System.err.println("Error detecting MongoDB topology: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Creates any index the queries rely on that is not there yet; a no-op once they all exist
+    private void ensureIndexes() {
+        Map<String, List<IndexModel>> indexes = new LinkedHashMap<>();
+        indexes.put("users", Arrays.asList(
+                new IndexModel(Indexes.ascending("username"), new IndexOptions().name("idx_users_username").unique(true)),
+                new IndexModel(Indexes.ascending("email"), new IndexOptions().name("idx_users_email").unique(true))));
+        indexes.put("books", Arrays.asList(
+                new IndexModel(Indexes.ascending("available", "_id"), new IndexOptions().name("idx_books_available_id")),
+                new IndexModel(Indexes.ascending("ownerId"), new IndexOptions().name("idx_books_owner"))));
+        indexes.put("exchanges", Arrays.asList(
+                new IndexModel(Indexes.compoundIndex(Indexes.ascending("requesterId"), Indexes.descending("requestDate")),
+                        new IndexOptions().name("idx_exchanges_requester_date")),
+                new IndexModel(Indexes.compoundIndex(Indexes.ascending("providerId"), Indexes.descending("requestDate")),
+                        new IndexOptions().name("idx_exchanges_provider_date")),
+                new IndexModel(Indexes.ascending("bookId"), new IndexOptions().name("idx_exchanges_book"))));
+
+        ScheduledExecutorService progressReporter = null;
+        try {
+            for (Map.Entry<String, List<IndexModel>> entry : indexes.entrySet()) {
+                MongoCollection<Document> collection = database.getCollection(entry.getKey());
+
+                // Compare by key pattern, an equal index under another name would make createIndex fail
+                Set<Document> existingKeys = new HashSet<>();
+                for (Document index : collection.listIndexes()) {
+                    existingKeys.add(keyPattern(index.get("key", Document.class)));
+                }
+
+                for (IndexModel index : entry.getValue()) {
+                    Document key = keyPattern(index.getKeys());
+                    if (existingKeys.contains(key)) {
+                        continue;
+                    }
+
+                    if (progressReporter == null) {
+                        progressReporter = startIndexProgressReporter();
+                    }
+                    String name = index.getOptions().getName();
+                    System.out.println("Creating index " + name + " on " + entry.getKey() + " " + key.toJson());
+                    long start = System.currentTimeMillis();
+                    try {
+                        collection.createIndex(index.getKeys(), index.getOptions());
+                        System.out.println("Created index " + name + " in " + (System.currentTimeMillis() - start) + " ms");
+                    } catch (MongoException e) {
+                        // Usually duplicate values already stored under a unique key; queries still work without it
+                        System.err.println("Error creating index " + name + ": " + e.getMessage());
+                    }
+                }
+            }
+        } catch (MongoException e) {
+            System.err.println("Error checking MongoDB indexes: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            if (progressReporter != null) {
+                progressReporter.shutdownNow();
+            }
+        }
+    }
+
+    // Key pattern with numeric directions normalised, the server may report 1 as 1.0
+    private Document keyPattern(Bson keys) {
+        Document pattern = new Document();
+        for (Map.Entry<String, BsonValue> field : keys.toBsonDocument().entrySet()) {
+            BsonValue value = field.getValue();
+            pattern.append(field.getKey(), value.isNumber() ? (Object) value.asNumber().intValue() : value.toString());
+        }
+        return pattern;
+    }
+
+    // Prints the server's progress on running index builds while connect waits for them
+    private ScheduledExecutorService startIndexProgressReporter() {
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mongodb-index-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        MongoDatabase admin = mongoClient.getDatabase("admin");
+        reporter.scheduleWithFixedDelay(() -> {
+            try {
+                for (Document op : admin.aggregate(Arrays.asList(
+                        new Document("$currentOp", new Document()),
+                        Aggregates.match(Filters.and(
+                                Filters.exists("command.createIndexes"),
+                                Filters.eq("ns", database.getName() + ".$cmd")))))) {
+                    Document progress = op.get("progress", Document.class);
+                    String message = op.getString("msg");
+                    if (progress != null) {
+                        System.out.println("Index build on " + op.get("command", Document.class).getString("createIndexes") +
+                                ": " + (message != null ? message + " " : "") +
+                                progress.get("done") + "/" + progress.get("total"));
+                    }
+                }
+            } catch (MongoException e) {
+                // Reading currentOp needs extra privileges; builds still finish without the report
+            }
+        }, 2, 2, TimeUnit.SECONDS);
+        return reporter;
     }
 
     @Override
     public void disconnect() {
+        if (denormalizedChecker != null) {
+            denormalizedChecker.shutdownNow();
+            denormalizedChecker = null;
+        }
         if (mongoClient != null) {
             mongoClient.close();
+            mongoClient = null;
         }
     }
 
@@ -60,36 +576,23 @@ public class MongoDBManager implements DatabaseManager {
 
     @Override
     public boolean authenticateUser(String username, String password) {
-        MongoCollection<Document> users = database.getCollection("users");
         Document query = new Document("username", username)
                 .append("password", password); // In a real app, use password hashing
 
-        return users.find(query).first() != null;
+        return usersCollection.find(query).projection(Projections.include("_id")).first() != null;
     }
 
     @Override
     public User getUserByUsername(String username) {
-        MongoCollection<Document> users = database.getCollection("users");
         Document query = new Document("username", username);
-        Document userDoc = users.find(query).first();
-
-        if (userDoc != null) {
-            User user = new User();
-            user.setId(userDoc.getObjectId("_id").toString());
-            user.setUsername(userDoc.getString("username"));
-            user.setEmail(userDoc.getString("email"));
-            user.setFullName(userDoc.getString("fullName"));
-            user.setAddress(userDoc.getString("address"));
-            return user;
-        }
-
-        return null;
+        // The password hash never needs to leave the database
+        return userReads.find(query)
+                .projection(Projections.exclude("password", "registrationDate"))
+                .first();
     }
 
     @Override
     public boolean registerUser(User user) {
-        MongoCollection<Document> users = database.getCollection("users");
-
         Document userDoc = new Document("username", user.getUsername())
                 .append("password", user.getPassword()) // In a real app, use password hashing
                 .append("email", user.getEmail())
@@ -98,7 +601,14 @@ public class MongoDBManager implements DatabaseManager {
                 .append("registrationDate", new Date());
 
         try {
-            users.insertOne(userDoc);
+            countedWrite("users", session -> {
+                if (session != null) {
+                    usersCollection.insertOne(session, userDoc);
+                } else {
+                    usersCollection.insertOne(userDoc);
+                }
+                return 1;
+            });
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -108,15 +618,13 @@ public class MongoDBManager implements DatabaseManager {
 
     @Override
     public boolean updateUser(User user) {
-        MongoCollection<Document> users = database.getCollection("users");
-
         Document query = new Document("_id", new ObjectId(user.getId()));
         Document update = new Document("$set", new Document("email", user.getEmail())
                 .append("fullName", user.getFullName())
                 .append("address", user.getAddress()));
 
         try {
-            users.updateOne(query, update);
+            usersCollection.updateOne(query, update);
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -127,68 +635,141 @@ public class MongoDBManager implements DatabaseManager {
     @Override
     public List<Book> getAllBooks() {
         List<Book> books = new ArrayList<>();
-        MongoCollection<Document> booksCollection = database.getCollection("books");
-        MongoCollection<Document> usersCollection = database.getCollection("users");
+        streamAllBooks(books::add);
+        return books;
+    }
+
+    @Override
+    public void streamAllBooks(Consumer<Book> consumer) {
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.eq("available", true)));
+        pipeline.add(Aggregates.project(BOOK_SUMMARY));
+        pipeline.addAll(ownerNameStages());
+
+        // The cursor pulls batchSize documents per round trip and is closed even if the consumer throws
+        try (MongoCursor<Book> cursor = bookReads.aggregate(pipeline)
+                .batchSize(fetchSize)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                consumer.accept(cursor.next());
+            }
+        }
+    }
 
-        FindIterable<Document> bookDocs = booksCollection.find(Filters.eq("available", true));
+    @Override
+    public List<Book> getAvailableBooksPage(String afterBookId, int pageSize, String excludeOwnerId) {
 
-        for (Document bookDoc : bookDocs) {
-            Book book = new Book();
-            book.setId(bookDoc.getObjectId("_id").toString());
-            book.setTitle(bookDoc.getString("title"));
-            book.setAuthor(bookDoc.getString("author"));
-            book.setIsbn(bookDoc.getString("isbn"));
-            book.setDescription(bookDoc.getString("description"));
-            book.setCondition(bookDoc.getString("condition"));
-            book.setOwnerId(bookDoc.getObjectId("ownerId").toString());
-            book.setAvailable(bookDoc.getBoolean("available", true));
+        // Seek past the last _id of the previous page instead of skipping documents
+        List<Bson> filters = new ArrayList<>();
+        filters.add(Filters.eq("available", true));
+        if (afterBookId != null) {
+            filters.add(Filters.gt("_id", new ObjectId(afterBookId)));
+        }
+        if (excludeOwnerId != null) {
+            filters.add(Filters.ne("ownerId", new ObjectId(excludeOwnerId)));
+        }
 
-            // Get owner name
-            Document ownerDoc = usersCollection.find(Filters.eq("_id", new ObjectId(book.getOwnerId()))).first();
-            if (ownerDoc != null) {
-                book.setOwnerName(ownerDoc.getString("username"));
-            }
+        // Owners are joined after the limit, so only the page's books are looked up
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.and(filters)));
+        pipeline.add(Aggregates.sort(Sorts.ascending("_id")));
+        pipeline.add(Aggregates.limit(pageSize));
+        pipeline.add(Aggregates.project(BOOK_SUMMARY));
+        pipeline.addAll(ownerNameStages());
+
+        return bookReads.aggregate(pipeline).into(new ArrayList<>());
+    }
 
-            books.add(book);
+    private List<Bson> ownerNameStages() {
+        if (denormalizedReads) {
+            return List.of();
         }
+        return joinFieldStages("users", "ownerId", "username", "ownerName");
+    }
 
-        return books;
+    // Copies one field of the document referenced by localField into targetField on the server;
+    // only that field of the referenced document is read
+    private List<Bson> joinFieldStages(String from, String localField, String sourceField, String targetField) {
+        String alias = "_joined_" + targetField;
+        return Arrays.asList(
+                Aggregates.lookup(from,
+                        List.of(new Variable<>("refId", "$" + localField)),
+                        List.of(Aggregates.match(Filters.expr(
+                                        new Document("$eq", Arrays.asList("$_id", "$$refId")))),
+                                Aggregates.project(Projections.include(sourceField))),
+                        alias),
+                Aggregates.set(new Field<>(targetField,
+                        new Document("$arrayElemAt", Arrays.asList("$" + alias + "." + sourceField, 0)))),
+                Aggregates.project(Projections.exclude(alias)));
     }
 
     @Override
-    public List<Book> getBooksByUser(String username) {
+    public Book getBookById(String bookId) {
+        if (bookId == null || !ObjectId.isValid(bookId)) {
+            return null;
+        }
+
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.eq("_id", new ObjectId(bookId))));
+        pipeline.add(Aggregates.project(BOOK_DETAILS));
+        pipeline.addAll(ownerNameStages());
+
+        return bookReads.aggregate(pipeline).first();
+    }
+
+    @Override
+    public List<Book> getBooksByIds(Collection<String> bookIds) {
         List<Book> books = new ArrayList<>();
-        MongoCollection<Document> booksCollection = database.getCollection("books");
-        MongoCollection<Document> usersCollection = database.getCollection("users");
 
-        Document userDoc = usersCollection.find(Filters.eq("username", username)).first();
-        if (userDoc == null) {
+        List<ObjectId> ids = new ArrayList<>();
+        for (String bookId : bookIds) {
+            if (bookId != null && ObjectId.isValid(bookId)) {
+                ids.add(new ObjectId(bookId));
+            }
+        }
+        if (ids.isEmpty()) {
             return books;
         }
 
-        ObjectId userId = userDoc.getObjectId("_id");
-        FindIterable<Document> bookDocs = booksCollection.find(Filters.eq("ownerId", userId));
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.in("_id", ids)));
+        // Keeps the description: these fill the same cache entries as getBookById
+        pipeline.add(Aggregates.project(BOOK_DETAILS));
+        pipeline.addAll(ownerNameStages());
 
-        for (Document bookDoc : bookDocs) {
-            Book book = new Book();
-            book.setId(bookDoc.getObjectId("_id").toString());
-            book.setTitle(bookDoc.getString("title"));
-            book.setAuthor(bookDoc.getString("author"));
-            book.setIsbn(bookDoc.getString("isbn"));
-            book.setDescription(bookDoc.getString("description"));
-            book.setCondition(bookDoc.getString("condition"));
-            book.setOwnerId(bookDoc.getObjectId("ownerId").toString());
-            book.setAvailable(bookDoc.getBoolean("available", true));
-            books.add(book);
-        }
+        return bookReads.aggregate(pipeline).into(books);
+    }
 
+    @Override
+    public List<Book> getBooksByUser(String username) {
+        List<Book> books = new ArrayList<>();
+        streamBooksByUser(username, books::add);
         return books;
     }
 
     @Override
-    public boolean addBook(Book book) {
-        MongoCollection<Document> books = database.getCollection("books");
+    public void streamBooksByUser(String username, Consumer<Book> consumer) {
+        Document userDoc = usersCollection.find(Filters.eq("username", username))
+                .projection(Projections.include("_id"))
+                .first();
+        if (userDoc == null) {
+            return;
+        }
 
+        ObjectId userId = userDoc.getObjectId("_id");
+        try (MongoCursor<Book> cursor = bookReads.find(Filters.eq("ownerId", userId))
+                // Owners edit books from their own list, so it keeps the description
+                .projection(BOOK_DETAILS)
+                .batchSize(fetchSize)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                consumer.accept(cursor.next());
+            }
+        }
+    }
+
+    @Override
+    public boolean addBook(Book book) {
         Document bookDoc = new Document("title", book.getTitle())
                 .append("author", book.getAuthor())
                 .append("isbn", book.getIsbn())
@@ -199,7 +780,18 @@ public class MongoDBManager implements DatabaseManager {
                 .append("addedDate", new Date());
 
         try {
-            books.insertOne(bookDoc);
+            if (denormalized) {
+                ObjectId ownerId = bookDoc.getObjectId("ownerId");
+                bookDoc.append("ownerName", usernamesById(List.of(ownerId)).get(ownerId));
+            }
+            countedWrite("books", session -> {
+                if (session != null) {
+                    booksCollection.insertOne(session, bookDoc);
+                } else {
+                    booksCollection.insertOne(bookDoc);
+                }
+                return 1;
+            });
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -208,19 +800,123 @@ public class MongoDBManager implements DatabaseManager {
     }
 
     @Override
-    public boolean updateBook(Book book) {
-        MongoCollection<Document> books = database.getCollection("books");
+    public BulkInsertResult addBooks(List<Book> books) {
+        BulkInsertResult result = new BulkInsertResult();
+        Date addedDate = new Date();
+
+        for (int start = 0; start < books.size(); start += batchSize) {
+            int end = Math.min(start + batchSize, books.size());
+            List<Document> bookDocs = new ArrayList<>();
+            // Position of each document in the submitted list
+            List<Integer> positions = new ArrayList<>();
+
+            for (int i = start; i < end; i++) {
+                Book book = books.get(i);
+                if (book.getOwnerId() == null || !ObjectId.isValid(book.getOwnerId())) {
+                    result.addFailure(i, "Invalid owner id: " + book.getOwnerId());
+                    continue;
+                }
+                bookDocs.add(new Document("title", book.getTitle())
+                        .append("author", book.getAuthor())
+                        .append("isbn", book.getIsbn())
+                        .append("description", book.getDescription())
+                        .append("condition", book.getCondition())
+                        .append("ownerId", new ObjectId(book.getOwnerId()))
+                        .append("available", true)
+                        .append("addedDate", addedDate));
+                positions.add(i);
+            }
+
+            if (bookDocs.isEmpty()) {
+                continue;
+            }
+
+            try {
+                if (denormalized) {
+                    // One lookup for all owners in the chunk
+                    Set<ObjectId> ownerIds = new HashSet<>();
+                    for (Document bookDoc : bookDocs) {
+                        ownerIds.add(bookDoc.getObjectId("ownerId"));
+                    }
+                    Map<ObjectId, String> ownerNames = usernamesById(ownerIds);
+                    for (Document bookDoc : bookDocs) {
+                        bookDoc.append("ownerName", ownerNames.get(bookDoc.getObjectId("ownerId")));
+                    }
+                }
+                insertBookChunk(bookDocs, positions, result);
+            } catch (Exception e) {
+                e.printStackTrace();
+                for (int position : positions) {
+                    result.addFailure(position, e.getMessage());
+                }
+            }
+        }
+
+        return result;
+    }
 
+    private void insertBookChunk(List<Document> bookDocs, List<Integer> positions, BulkInsertResult result) {
+        while (!bookDocs.isEmpty()) {
+            List<Document> chunk = bookDocs;
+            try {
+                // Unordered so one bad document does not stop the rest of the chunk
+                countedWrite("books", session -> {
+                    if (session != null) {
+                        booksCollection.insertMany(session, chunk, new InsertManyOptions().ordered(false));
+                    } else {
+                        booksCollection.insertMany(chunk, new InsertManyOptions().ordered(false));
+                    }
+                    return chunk.size();
+                });
+                result.addInserted(chunk.size());
+                return;
+            } catch (MongoBulkWriteException e) {
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    result.addFailure(positions.get(error.getIndex()), error.getMessage());
+                }
+                if (!transactionsSupported) {
+                    result.addInserted(chunk.size() - e.getWriteErrors().size());
+                    adjustCounter(null, "books", chunk.size() - e.getWriteErrors().size());
+                    return;
+                }
+
+                // The transaction rolled the whole chunk back; retry without the rejected documents
+                Set<Integer> rejected = new HashSet<>();
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    rejected.add(error.getIndex());
+                }
+                List<Document> remainingDocs = new ArrayList<>();
+                List<Integer> remainingPositions = new ArrayList<>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    if (!rejected.contains(i)) {
+                        remainingDocs.add(chunk.get(i));
+                        remainingPositions.add(positions.get(i));
+                    }
+                }
+                bookDocs = remainingDocs;
+                positions = remainingPositions;
+            }
+        }
+    }
+
+    // Availability belongs to the exchange flow; an edit made from an older copy of the book must not undo a claim
+    @Override
+    public boolean updateBook(Book book) {
         Document query = new Document("_id", new ObjectId(book.getId()));
         Document update = new Document("$set", new Document("title", book.getTitle())
                 .append("author", book.getAuthor())
                 .append("isbn", book.getIsbn())
                 .append("description", book.getDescription())
-                .append("condition", book.getCondition())
-                .append("available", book.isAvailable()));
+                .append("condition", book.getCondition()));
 
         try {
-            books.updateOne(query, update);
+            booksCollection.updateOne(query, update);
+            if (denormalized) {
+                // Fan the new title out to the book's exchanges; only the copies that differ are rewritten
+                exchangesCollection.updateMany(
+                        Filters.and(Filters.eq("bookId", query.getObjectId("_id")), Filters.ne("bookTitle", book.getTitle())),
+                        Updates.set("bookTitle", book.getTitle()));
+            }
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -230,12 +926,12 @@ public class MongoDBManager implements DatabaseManager {
 
     @Override
     public boolean deleteBook(String bookId) {
-        MongoCollection<Document> books = database.getCollection("books");
-
         Document query = new Document("_id", new ObjectId(bookId));
 
         try {
-            books.deleteOne(query);
+            countedWrite("books", session -> (int) -(session != null
+                    ? booksCollection.deleteOne(session, query)
+                    : booksCollection.deleteOne(query)).getDeletedCount());
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -245,174 +941,243 @@ public class MongoDBManager implements DatabaseManager {
 
     @Override
     public List<Exchange> getExchangesByUser(String username) {
+        return getExchangesByUser(username, null, 0);
+    }
+
+    @Override
+    public List<Exchange> getExchangesByUser(String username, String status, int limit) {
         List<Exchange> exchanges = new ArrayList<>();
-        MongoCollection<Document> exchangesCollection = database.getCollection("exchanges");
-        MongoCollection<Document> booksCollection = database.getCollection("books");
-        MongoCollection<Document> usersCollection = database.getCollection("users");
+        queryExchangesByUser(username, status, limit, exchanges::add);
+        return exchanges;
+    }
 
-        Document userDoc = usersCollection.find(Filters.eq("username", username)).first();
+    @Override
+    public void streamExchangesByUser(String username, Consumer<Exchange> consumer) {
+        queryExchangesByUser(username, null, 0, consumer);
+    }
+
+    private void queryExchangesByUser(String username, String status, int limit, Consumer<Exchange> consumer) {
+        Document userDoc = usersCollection.find(Filters.eq("username", username))
+                .projection(Projections.include("_id"))
+                .first();
         if (userDoc == null) {
-            return exchanges;
+            return;
         }
 
         ObjectId userId = userDoc.getObjectId("_id");
-        FindIterable<Document> exchangeDocs = exchangesCollection.find(
-                Filters.or(
-                        Filters.eq("requesterId", userId),
-                        Filters.eq("providerId", userId)
-                )
+        Bson filter = Filters.or(
+                Filters.eq("requesterId", userId),
+                Filters.eq("providerId", userId)
         );
+        if (status != null) {
+            filter = Filters.and(filter, Filters.eq("status", status));
+        }
 
-        for (Document exchangeDoc : exchangeDocs) {
-            Exchange exchange = new Exchange();
-            exchange.setId(exchangeDoc.getObjectId("_id").toString());
-            exchange.setRequesterId(exchangeDoc.getObjectId("requesterId").toString());
-            exchange.setProviderId(exchangeDoc.getObjectId("providerId").toString());
-            exchange.setBookId(exchangeDoc.getObjectId("bookId").toString());
-            exchange.setStatus(exchangeDoc.getString("status"));
-            exchange.setRequestDate(exchangeDoc.getDate("requestDate"));
-            exchange.setCompletionDate(exchangeDoc.getDate("completionDate"));
+        // Sort and limit first so the joins only touch the rows that are returned
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(filter));
+        pipeline.add(Aggregates.sort(Sorts.descending("requestDate")));
+        if (limit > 0) {
+            pipeline.add(Aggregates.limit(limit));
+        }
+        pipeline.addAll(exchangeNameStages());
 
-            // Get book title
-            Document bookDoc = booksCollection.find(Filters.eq("_id", new ObjectId(exchange.getBookId()))).first();
-            if (bookDoc != null) {
-                exchange.setBookTitle(bookDoc.getString("title"));
+        try (MongoCursor<Exchange> cursor = exchangeReads.aggregate(pipeline)
+                .batchSize(fetchSize)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                consumer.accept(cursor.next());
             }
+        }
+    }
 
-            // Get requester name
-            Document requesterDoc = usersCollection.find(Filters.eq("_id", new ObjectId(exchange.getRequesterId()))).first();
-            if (requesterDoc != null) {
-                exchange.setRequesterName(requesterDoc.getString("username"));
-            }
+    @Override
+    public Exchange getExchangeById(String exchangeId) {
+        if (exchangeId == null || !ObjectId.isValid(exchangeId)) {
+            return null;
+        }
 
-            // Get provider name
-            Document providerDoc = usersCollection.find(Filters.eq("_id", new ObjectId(exchange.getProviderId()))).first();
-            if (providerDoc != null) {
-                exchange.setProviderName(providerDoc.getString("username"));
-            }
+        List<Bson> pipeline = new ArrayList<>();
+        pipeline.add(Aggregates.match(Filters.eq("_id", new ObjectId(exchangeId))));
+        pipeline.addAll(exchangeNameStages());
 
-            exchanges.add(exchange);
-        }
+        return exchangeReads.aggregate(pipeline).first();
+    }
 
-        return exchanges;
+    // Book title and both usernames, joined on the server
+    private List<Bson> exchangeNameStages() {
+        List<Bson> stages = new ArrayList<>();
+        if (denormalizedReads) {
+            return stages;
+        }
+        stages.addAll(joinFieldStages("books", "bookId", "title", "bookTitle"));
+        stages.addAll(joinFieldStages("users", "requesterId", "username", "requesterName"));
+        stages.addAll(joinFieldStages("users", "providerId", "username", "providerName"));
+        return stages;
     }
 
     @Override
-    public boolean createExchange(Exchange exchange) {
-        MongoCollection<Document> exchanges = database.getCollection("exchanges");
-        MongoCollection<Document> books = database.getCollection("books");
-
+    public ExchangeResult createExchange(Exchange exchange) {
+        ObjectId bookId = new ObjectId(exchange.getBookId());
         Document exchangeDoc = new Document("requesterId", new ObjectId(exchange.getRequesterId()))
                 .append("providerId", new ObjectId(exchange.getProviderId()))
-                .append("bookId", new ObjectId(exchange.getBookId()))
+                .append("bookId", bookId)
                 .append("status", "PENDING")
                 .append("requestDate", new Date());
 
-        try {
-            exchanges.insertOne(exchangeDoc);
+        if (denormalized) {
+            try {
+                Map<ObjectId, String> usernames = usernamesById(List.of(
+                        exchangeDoc.getObjectId("requesterId"), exchangeDoc.getObjectId("providerId")));
+                exchangeDoc.append("requesterName", usernames.get(exchangeDoc.getObjectId("requesterId")))
+                        .append("providerName", usernames.get(exchangeDoc.getObjectId("providerId")));
+            } catch (Exception e) {
+                e.printStackTrace();
+                return ExchangeResult.FAILED;
+            }
+        }
 
-            // Mark book as unavailable
-            books.updateOne(
-                    Filters.eq("_id", new ObjectId(exchange.getBookId())),
-                    Updates.set("available", false)
-            );
+        if (transactionsSupported) {
+            // Claim, exchange and counter commit together; a write conflict with a concurrent claim
+            // is retried by withTransaction and then finds the book taken
+            try (ClientSession session = mongoClient.startSession()) {
+                return session.withTransaction(() -> {
+                    Document claimed = claimBook(session, bookId);
+                    if (claimed == null) {
+                        return ExchangeResult.ALREADY_TAKEN;
+                    }
+                    copyBookTitle(claimed, exchangeDoc);
+                    exchangesCollection.insertOne(session, exchangeDoc);
+                    adjustCounter(session, "exchanges", 1);
+                    return ExchangeResult.CREATED;
+                }, exchangeTransactionOptions());
+            } catch (Exception e) {
+                e.printStackTrace();
+                return ExchangeResult.FAILED;
+            }
+        }
 
-            return true;
+        try {
+            Document claimed = claimBook(null, bookId);
+            if (claimed == null) {
+                return ExchangeResult.ALREADY_TAKEN;
+            }
+            copyBookTitle(claimed, exchangeDoc);
         } catch (Exception e) {
             e.printStackTrace();
-            return false;
+            return ExchangeResult.FAILED;
+        }
+
+        try {
+            exchangesCollection.insertOne(exchangeDoc);
+            adjustCounter(null, "exchanges", 1);
+            return ExchangeResult.CREATED;
+        } catch (Exception e) {
+            e.printStackTrace();
+            // Without transactions, give the book back so it does not stay claimed by an exchange that was never recorded
+            booksCollection.updateOne(Filters.eq("_id", bookId), Updates.set("available", true));
+            return ExchangeResult.FAILED;
+        }
+    }
+
+    private TransactionOptions exchangeTransactionOptions() {
+        return TransactionOptions.builder()
+                .readPreference(ReadPreference.primary())
+                .writeConcern(exchangeWriteConcern)
+                .build();
+    }
+
+    private void copyBookTitle(Document claimed, Document exchangeDoc) {
+        if (denormalized) {
+            exchangeDoc.append("bookTitle", claimed.getString("title"));
         }
     }
 
+    // Only one concurrent request can flip the book from available; null when it was already taken
+    private Document claimBook(ClientSession session, ObjectId bookId) {
+        MongoCollection<Document> books = booksCollection.withWriteConcern(exchangeWriteConcern);
+        Bson filter = Filters.and(Filters.eq("_id", bookId), Filters.eq("available", true));
+        Bson update = Updates.set("available", false);
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions().projection(Projections.include("_id", "title"));
+        return session != null
+                ? books.findOneAndUpdate(session, filter, update, options)
+                : books.findOneAndUpdate(filter, update, options);
+    }
+
     @Override
     public boolean updateExchangeStatus(String exchangeId, String status) {
-        MongoCollection<Document> exchanges = database.getCollection("exchanges");
-        MongoCollection<Document> books = database.getCollection("books");
-
-        Document query = new Document("_id", new ObjectId(exchangeId));
-        Document update;
+        Bson filter = Filters.eq("_id", new ObjectId(exchangeId));
+        Bson update;
 
         if ("COMPLETED".equals(status)) {
-            update = new Document("$set", new Document("status", status)
-                    .append("completionDate", new Date()));
+            update = Updates.combine(Updates.set("status", status), Updates.set("completionDate", new Date()));
         } else {
-            update = new Document("$set", new Document("status", status));
+            update = Updates.set("status", status);
         }
 
         try {
-            exchanges.updateOne(query, update);
-
-            if ("CANCELLED".equals(status)) {
-                // Make the book available again
-                Document exchangeDoc = exchanges.find(query).first();
-                if (exchangeDoc != null) {
-                    ObjectId bookId = exchangeDoc.getObjectId("bookId");
-                    books.updateOne(
-                            Filters.eq("_id", bookId),
-                            Updates.set("available", true)
-                    );
+            if (transactionsSupported && "CANCELLED".equals(status)) {
+                // The status change and the book release commit together
+                try (ClientSession session = mongoClient.startSession()) {
+                    return session.withTransaction(() -> applyExchangeStatus(session, filter, update, status),
+                            exchangeTransactionOptions());
                 }
             }
-
-            return true;
+            return applyExchangeStatus(null, filter, update, status);
         } catch (Exception e) {
             e.printStackTrace();
             return false;
         }
     }
 
+    private boolean applyExchangeStatus(ClientSession session, Bson filter, Bson update, String status) {
+        // The document as it was before the update tells us the book and the previous status without another read
+        FindOneAndUpdateOptions options = new FindOneAndUpdateOptions()
+                .projection(Projections.include("bookId", "status"))
+                .returnDocument(ReturnDocument.BEFORE);
+        Document previous = session != null
+                ? exchangesCollection.findOneAndUpdate(session, filter, update, options)
+                : exchangesCollection.findOneAndUpdate(filter, update, options);
+        if (previous == null) {
+            return false;
+        }
+
+        // Only the first cancellation releases the book; a repeated one must not free a book someone claimed since
+        if ("CANCELLED".equals(status) && !"CANCELLED".equals(previous.getString("status"))) {
+            MongoCollection<Document> books = booksCollection.withWriteConcern(exchangeWriteConcern);
+            Bson bookFilter = Filters.eq("_id", previous.getObjectId("bookId"));
+            Bson release = Updates.set("available", true);
+            if (session != null) {
+                books.updateOne(session, bookFilter, release);
+            } else {
+                books.updateOne(bookFilter, release);
+            }
+        }
+        return true;
+    }
+
     @Override
     public List<Book> getMostExchangedBooks(int limit) {
         List<Book> books = new ArrayList<>();
-        MongoCollection<Document> booksCollection = database.getCollection("books");
-        MongoCollection<Document> exchangesCollection = database.getCollection("exchanges");
-        MongoCollection<Document> usersCollection = database.getCollection("users");
-
-        // Using a simpler approach for aggregation
-        List<Document> results = new ArrayList<>();
 
         try {
-            // First, count exchanges per book
-            Document groupStage = new Document("$group",
-                    new Document("_id", "$bookId")
-                            .append("count", new Document("$sum", 1))
-                            .append("bookId", new Document("$first", "$bookId"))
-            );
-
-            Document sortStage = new Document("$sort",
-                    new Document("count", -1)
-            );
-
-            Document limitStage = new Document("$limit", limit);
-
-            List<Document> pipeline = Arrays.asList(groupStage, sortStage, limitStage);
-
-            exchangesCollection.aggregate(pipeline).into(results);
-
-            // Process results
-            for (Document result : results) {
-                ObjectId bookId = result.get("bookId", ObjectId.class);
-                int exchangeCount = result.getInteger("count");
-
-                Document bookDoc = booksCollection.find(Filters.eq("_id", bookId)).first();
-                if (bookDoc != null) {
-                    Book book = new Book();
-                    book.setId(bookDoc.getObjectId("_id").toString());
-                    book.setTitle(bookDoc.getString("title"));
-                    book.setAuthor(bookDoc.getString("author"));
-                    book.setIsbn(bookDoc.getString("isbn"));
-                    book.setOwnerId(bookDoc.getObjectId("ownerId").toString());
-                    book.setExchangeCount(exchangeCount);
-
-                    // Get owner name
-                    Document ownerDoc = usersCollection.find(Filters.eq("_id", new ObjectId(book.getOwnerId()))).first();
-                    if (ownerDoc != null) {
-                        book.setOwnerName(ownerDoc.getString("username"));
-                    }
-
-                    books.add(book);
-                }
-            }
+            // Count, rank and join on the server; only the top rows come back
+            List<Bson> pipeline = new ArrayList<>();
+            pipeline.add(Aggregates.group("$bookId", Accumulators.sum("exchangeCount", 1)));
+            pipeline.add(Aggregates.sort(Sorts.orderBy(Sorts.descending("exchangeCount"), Sorts.ascending("_id"))));
+            pipeline.add(Aggregates.limit(limit));
+            pipeline.add(Aggregates.lookup("books",
+                    List.of(new Variable<>("bookId", "$_id")),
+                    List.of(Aggregates.match(Filters.expr(new Document("$eq", Arrays.asList("$_id", "$$bookId")))),
+                            Aggregates.project(Projections.include("title", "author", "isbn", "ownerId", "ownerName"))),
+                    "book"));
+            // Books deleted since their exchanges were recorded drop out here
+            pipeline.add(Aggregates.unwind("$book"));
+            pipeline.add(Aggregates.replaceWith(new Document("$mergeObjects",
+                    Arrays.asList("$book", new Document("exchangeCount", "$exchangeCount")))));
+            pipeline.addAll(ownerNameStages());
+
+            exchangeReads.withReadPreference(reportsReadPreference).aggregate(pipeline, Book.class).into(books);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -423,73 +1188,41 @@ public class MongoDBManager implements DatabaseManager {
     @Override
     public List<User> getMostActiveUsers(int limit) {
         List<User> users = new ArrayList<>();
-        MongoCollection<Document> usersCollection = database.getCollection("users");
-        MongoCollection<Document> exchangesCollection = database.getCollection("exchanges");
 
         try {
-            // Create a map to store user exchange counts
-            java.util.Map<String, Integer> userExchanges = new java.util.HashMap<>();
-
-            // Count requester exchanges
-            Document requesterGroup = new Document("$group",
-                    new Document("_id", "$requesterId")
-                            .append("count", new Document("$sum", 1))
-            );
-
-            List<Document> requesterPipeline = Arrays.asList(requesterGroup);
-            List<Document> requesterResults = new ArrayList<>();
-            exchangesCollection.aggregate(requesterPipeline).into(requesterResults);
-
-            for (Document result : requesterResults) {
-                ObjectId userId = result.getObjectId("_id");
-                int count = result.getInteger("count");
-                userExchanges.put(userId.toString(), count);
-            }
-
-            // Count provider exchanges
-            Document providerGroup = new Document("$group",
-                    new Document("_id", "$providerId")
-                            .append("count", new Document("$sum", 1))
-            );
-
-            List<Document> providerPipeline = Arrays.asList(providerGroup);
-            List<Document> providerResults = new ArrayList<>();
-            exchangesCollection.aggregate(providerPipeline).into(providerResults);
-
-            for (Document result : providerResults) {
-                ObjectId userId = result.getObjectId("_id");
-                int count = result.getInteger("count");
-                String userIdStr = userId.toString();
-
-                if (userExchanges.containsKey(userIdStr)) {
-                    userExchanges.put(userIdStr, userExchanges.get(userIdStr) + count);
-                } else {
-                    userExchanges.put(userIdStr, count);
-                }
-            }
-
-            // Sort users by exchange count
-            List<java.util.Map.Entry<String, Integer>> sortedUsers = new ArrayList<>(userExchanges.entrySet());
-            sortedUsers.sort((a, b) -> b.getValue() - a.getValue());
-
-            // Get top users
-            int count = 0;
-            for (java.util.Map.Entry<String, Integer> entry : sortedUsers) {
-                if (count >= limit) break;
-
-                String userIdStr = entry.getKey();
-                Document userDoc = usersCollection.find(Filters.eq("_id", new ObjectId(userIdStr))).first();
-
-                if (userDoc != null) {
-                    User user = new User();
-                    user.setId(userDoc.getObjectId("_id").toString());
-                    user.setUsername(userDoc.getString("username"));
-                    user.setEmail(userDoc.getString("email"));
-                    user.setFullName(userDoc.getString("fullName"));
-                    user.setExchangeCount(entry.getValue());
-                    users.add(user);
-                    count++;
+            // Every exchange counts once for its requester and once for its provider; the set union counts a
+            // user who requested their own book once. Only the top rows are joined with users
+            List<Bson> pipeline = new ArrayList<>();
+            pipeline.add(Aggregates.project(new Document("_id", 0)
+                    .append("userId", new Document("$setUnion", Arrays.asList(
+                            Arrays.asList("$requesterId"), Arrays.asList("$providerId"))))));
+            pipeline.add(Aggregates.unwind("$userId"));
+            pipeline.add(Aggregates.group("$userId", Accumulators.sum("exchangeCount", 1)));
+            pipeline.add(Aggregates.sort(Sorts.orderBy(Sorts.descending("exchangeCount"), Sorts.ascending("_id"))));
+            pipeline.add(Aggregates.limit(limit));
+            pipeline.add(Aggregates.lookup("users",
+                    List.of(new Variable<>("userId", "$_id")),
+                    List.of(Aggregates.match(Filters.expr(new Document("$eq", Arrays.asList("$_id", "$$userId")))),
+                            Aggregates.project(Projections.include("username", "email", "fullName"))),
+                    "user"));
+            // Users deleted since their exchanges were recorded drop out here
+            pipeline.add(Aggregates.unwind("$user"));
+            pipeline.add(Aggregates.replaceWith(new Document("$mergeObjects",
+                    Arrays.asList("$user", new Document("exchangeCount", "$exchangeCount")))));
+            exchangeReads.withReadPreference(reportsReadPreference).aggregate(pipeline, User.class).into(users);
+
+            // The SQL backends list users without exchanges at zero; fetch them only when the top list is short
+            if (users.size() < limit) {
+                List<ObjectId> listedIds = new ArrayList<>();
+                for (User user : users) {
+                    listedIds.add(new ObjectId(user.getId()));
                 }
+                userReads.withReadPreference(reportsReadPreference)
+                        .find(Filters.nin("_id", listedIds))
+                        .projection(Projections.include("username", "email", "fullName"))
+                        .sort(Sorts.ascending("_id"))
+                        .limit(limit - users.size())
+                        .into(users);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -500,19 +1233,88 @@ public class MongoDBManager implements DatabaseManager {
 
     @Override
     public int getTotalExchanges() {
-        MongoCollection<Document> exchanges = database.getCollection("exchanges");
-        return (int) exchanges.countDocuments();
+        return getSystemStats().getTotalExchanges();
     }
 
     @Override
     public int getTotalBooks() {
-        MongoCollection<Document> books = database.getCollection("books");
-        return (int) books.countDocuments();
+        return getSystemStats().getTotalBooks();
     }
 
     @Override
     public int getTotalUsers() {
-        MongoCollection<Document> users = database.getCollection("users");
-        return (int) users.countDocuments();
+        return getSystemStats().getTotalUsers();
+    }
+
+    @Override
+    public SystemStats getSystemStats() {
+        Document statsDoc = countersCollection.withReadPreference(reportsReadPreference)
+                .find(Filters.eq("_id", STATS_ID)).first();
+        if (statsDoc == null) {
+            return reconcileSystemStats();
+        }
+
+        return new SystemStats(
+                statsDoc.getInteger("books", 0),
+                statsDoc.getInteger("users", 0),
+                statsDoc.getInteger("exchanges", 0));
+    }
+
+    @Override
+    public SystemStats reconcileSystemStats() {
+        SystemStats stats = new SystemStats(
+                (int) booksCollection.countDocuments(),
+                (int) usersCollection.countDocuments(),
+                (int) exchangesCollection.countDocuments());
+
+        try {
+            countersCollection.replaceOne(
+                    Filters.eq("_id", STATS_ID),
+                    new Document("_id", STATS_ID)
+                            .append("books", stats.getTotalBooks())
+                            .append("users", stats.getTotalUsers())
+                            .append("exchanges", stats.getTotalExchanges()),
+                    new ReplaceOptions().upsert(true));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return stats;
+    }
+
+    // Runs a write and the counter change it accounts for in one transaction where the deployment supports
+    // it; the write returns the counter delta
+    private int countedWrite(String name, Function<ClientSession, Integer> write) {
+        if (transactionsSupported) {
+            try (ClientSession session = mongoClient.startSession()) {
+                return session.withTransaction(() -> {
+                    int delta = write.apply(session);
+                    adjustCounter(session, name, delta);
+                    return delta;
+                });
+            }
+        }
+
+        int delta = write.apply(null);
+        adjustCounter(null, name, delta);
+        return delta;
+    }
+
+    // Never upserts: a document created here would hold only this one counter. connect() seeds the document
+    // and getSystemStats rebuilds it if it goes missing. Without a session the change follows the write it
+    // accounts for and reconcileSystemStats repairs any drift
+    private void adjustCounter(ClientSession session, String name, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        if (session != null) {
+            countersCollection.updateOne(session, Filters.eq("_id", STATS_ID), Updates.inc(name, delta));
+            return;
+        }
+        try {
+            countersCollection.updateOne(Filters.eq("_id", STATS_ID), Updates.inc(name, delta));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -3,147 +3,188 @@ package com.bookexchange.db;
 import com.bookexchange.config.ConfigManager;
 import com.bookexchange.model.Book;
 import com.bookexchange.model.Exchange;
+import com.bookexchange.model.SystemStats;
 import com.bookexchange.model.User;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class MySQLManager implements DatabaseManager {
-    private Connection connection;
+    private static final int MAX_IN_LIST_SIZE = 256;
+    private static final int ER_BAD_DB_ERROR = 1049;
+
+    // Null host and port mean the primary configured under db.host and db.port
+    private final String replicaHost;
+    private final String replicaPort;
+    private ConnectionPool pool;
+    private int fetchSize = 100;
+    private int batchSize = 500;
+    // Why the last connect or lag check failed; replicas leave logging it to the router
+    private volatile String lastError;
+
+    public MySQLManager() {
+        this(null, null);
+    }
+
+    // A read replica: same database and credentials, but never creates or migrates the schema
+    public MySQLManager(String replicaHost, String replicaPort) {
+        this.replicaHost = replicaHost;
+        this.replicaPort = replicaPort;
+    }
+
+    public boolean isReplica() {
+        return replicaHost != null;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public String toString() {
+        return isReplica() ? "MySQL replica " + replicaHost + ":" + replicaPort : "MySQL primary";
+    }
 
     @Override
     public void connect() {
         try {
             ConfigManager config = ConfigManager.getInstance();
-            String host = config.getProperty(ConfigManager.DB_HOST);
-            String port = config.getProperty(ConfigManager.DB_PORT);
+            String host = isReplica() ? replicaHost : config.getProperty(ConfigManager.DB_HOST);
+            String port = isReplica() ? replicaPort : config.getProperty(ConfigManager.DB_PORT);
             String dbName = config.getProperty(ConfigManager.DB_NAME);
             String user = config.getProperty(ConfigManager.DB_USER);
             String password = config.getProperty(ConfigManager.DB_PASSWORD);
 
-            // First connect without database to check if it exists
             String baseUrl = "jdbc:mysql://" + host + ":" + port;
 
             // Load the MySQL JDBC driver
             Class.forName("com.mysql.cj.jdbc.Driver");
 
-            // Establish connection to server (without specifying database)
-            System.out.println("Connecting to MySQL server at " + baseUrl);
-            connection = DriverManager.getConnection(baseUrl, user, password);
-
-            // Check if database exists, create if it doesn't
-            createDatabaseIfNotExists(dbName);
-
-            // Close the initial connection
-            connection.close();
-
-            // Connect with the database specified
-            String dbUrl = baseUrl + "/" + dbName + "?useSSL=false&allowPublicKeyRetrieval=true";
-            System.out.println("Connecting to database: " + dbUrl);
-            connection = DriverManager.getConnection(dbUrl, user, password);
+            // Pool connections to the database itself
+            // Server-side prepared statements make the per-connection statement cache save real round trips,
+            // cursor fetch lets the streaming reads pull rows in fetchSize batches and
+            // batch rewriting turns addBooks batches into multi-row inserts
+            String dbUrl = baseUrl + "/" + dbName + "?useSSL=false&allowPublicKeyRetrieval=true" +
+                    "&useServerPrepStmts=true&useCursorFetch=true&rewriteBatchedStatements=true";
+            fetchSize = config.getIntProperty(ConfigManager.DB_FETCH_SIZE, 100);
+            batchSize = Math.max(1, config.getIntProperty(ConfigManager.DB_BATCH_SIZE, 500));
+            if (!isReplica()) {
+                System.out.println("Connecting to database: " + dbUrl);
+            }
+            pool = new ConnectionPool(dbUrl, user, password,
+                    config.getIntProperty(ConfigManager.DB_POOL_MAX_SIZE, 10),
+                    config.getIntProperty(ConfigManager.DB_POOL_MIN_IDLE, 2),
+                    config.getLongProperty(ConfigManager.DB_POOL_IDLE_TIMEOUT_MS, 600000),
+                    config.getLongProperty(ConfigManager.DB_POOL_MAX_LIFETIME_MS, 1800000),
+                    config.getLongProperty(ConfigManager.DB_POOL_BORROW_TIMEOUT_MS, 30000),
+                    config.getIntProperty(ConfigManager.DB_STATEMENT_CACHE_SIZE, 50));
+            try {
+                pool.start();
+            } catch (SQLException e) {
+                if (e.getErrorCode() != ER_BAD_DB_ERROR || isReplica()) {
+                    throw e;
+                }
+                // Only a brand new installation needs the server-level connection
+                createDatabase(baseUrl, user, password, dbName);
+                pool.start();
+            }
+            System.out.println("Connected to " + this + ": " + dbName + " (pool size " + pool.getMaxSize() + ")");
+            lastError = null;
 
-            // Create tables if they don't exist
-            if (connection != null) {
-                System.out.println("Connected to database: " + dbName);
-                createTablesIfNotExist();
+            // Replicas receive the schema through replication
+            if (!isReplica()) {
+                try (Connection connection = getConnection()) {
+                    new SchemaMigrator().migrate(connection);
+                }
             }
         } catch (ClassNotFoundException e) {
             System.err.println("MySQL JDBC Driver not found: " + e.getMessage());
             e.printStackTrace();
         } catch (SQLException e) {
-            System.err.println("Error connecting to MySQL database: " + e.getMessage());
-            e.printStackTrace();
+            lastError = e.getMessage();
+            if (!isReplica()) {
+                System.err.println("Error connecting to MySQL database: " + e.getMessage());
+                e.printStackTrace();
+            }
+            if (pool != null) {
+                pool.close();
+                pool = null;
+            }
         }
     }
 
-    private void createDatabaseIfNotExists(String dbName) {
-        try {
-            Statement stmt = connection.createStatement();
-            System.out.println("Creating database if not exists: " + dbName);
-            stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS " + dbName);
-            stmt.close();
-        } catch (SQLException e) {
-            System.err.println("Error creating database: " + e.getMessage());
-            e.printStackTrace();
+    private Connection getConnection() throws SQLException {
+        ConnectionPool current = pool;
+        if (current == null) {
+            throw new SQLException("Database connection is not established");
         }
+        return current.getConnection();
     }
 
-    private void createTablesIfNotExist() {
-        try {
+    // Seconds this server trails its source; -1 when replication is broken, not configured or cannot be checked
+    public long getReplicationLagSeconds() {
+        try (Connection connection = getConnection()) {
             Statement stmt = connection.createStatement();
+            ResultSet rs;
+            String lagColumn = "Seconds_Behind_Source";
+            try {
+                rs = stmt.executeQuery("SHOW REPLICA STATUS");
+            } catch (SQLException e) {
+                // Servers before 8.0.22 only know the old syntax
+                rs = stmt.executeQuery("SHOW SLAVE STATUS");
+                lagColumn = "Seconds_Behind_Master";
+            }
 
-            // Users table
-            stmt.execute("CREATE TABLE IF NOT EXISTS users (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "username VARCHAR(50) UNIQUE NOT NULL," +
-                    "password VARCHAR(100) NOT NULL," +
-                    "email VARCHAR(100) UNIQUE NOT NULL," +
-                    "full_name VARCHAR(100)," +
-                    "address TEXT," +
-                    "registration_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
-                    ")");
-
-            // Books table - Note the backticks around `condition` as it's a reserved word
-            stmt.execute("CREATE TABLE IF NOT EXISTS books (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "title VARCHAR(100) NOT NULL," +
-                    "author VARCHAR(100) NOT NULL," +
-                    "isbn VARCHAR(20)," +
-                    "description TEXT," +
-                    "`condition` VARCHAR(20)," +
-                    "owner_id INT NOT NULL," +
-                    "available BOOLEAN DEFAULT TRUE," +
-                    "added_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                    "FOREIGN KEY (owner_id) REFERENCES users(id)" +
-                    ")");
-
-            // Exchanges table
-            stmt.execute("CREATE TABLE IF NOT EXISTS exchanges (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY," +
-                    "requester_id INT NOT NULL," +
-                    "provider_id INT NOT NULL," +
-                    "book_id INT NOT NULL," +
-                    "status VARCHAR(20) DEFAULT 'PENDING'," +
-                    "request_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                    "completion_date TIMESTAMP NULL," +
-                    "FOREIGN KEY (requester_id) REFERENCES users(id)," +
-                    "FOREIGN KEY (provider_id) REFERENCES users(id)," +
-                    "FOREIGN KEY (book_id) REFERENCES books(id)" +
-                    ")");
+            // No status row means the server is not replicating at all, so its data may be arbitrarily old
+            long lag = -1;
+            if (rs.next()) {
+                lag = rs.getLong(lagColumn);
+                if (rs.wasNull()) {
+                    lag = -1;
+                }
+            }
 
+            rs.close();
             stmt.close();
+            lastError = null;
+            return lag;
         } catch (SQLException e) {
-            System.err.println("Error creating tables: " + e.getMessage());
-            e.printStackTrace();
+            lastError = e.getMessage();
+            return -1;
+        }
+    }
+
+    private void createDatabase(String serverUrl, String user, String password, String dbName) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(serverUrl, user, password);
+             Statement stmt = connection.createStatement()) {
+            System.out.println("Creating database: " + dbName);
+            stmt.executeUpdate("CREATE DATABASE IF NOT EXISTS " + dbName);
         }
     }
 
     @Override
     public void disconnect() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                connection = null;
-            }
-        } catch (SQLException e) {
-            System.err.println("Error disconnecting from database: " + e.getMessage());
-            e.printStackTrace();
+        if (pool != null) {
+            System.out.println("Statement cache hits: " + pool.getStatementCacheHits() +
+                    ", misses: " + pool.getStatementCacheMisses());
+            pool.close();
+            pool = null;
         }
     }
 
     @Override
     public boolean isConnected() {
-        try {
-            return connection != null && !connection.isClosed();
-        } catch (SQLException e) {
-            return false;
-        }
+        ConnectionPool current = pool;
+        return current != null && !current.isClosed();
     }
 
     @Override
     public boolean authenticateUser(String username, String password) {
-        try {
+        try (Connection connection = getConnection()) {
             PreparedStatement stmt = connection.prepareStatement(
                     "SELECT * FROM users WHERE username = ? AND password = ?");
             stmt.setString(1, username);
@@ -165,7 +206,7 @@ public class MySQLManager implements DatabaseManager {
 
     @Override
     public User getUserByUsername(String username) {
-        try {
+        try (Connection connection = getConnection()) {
             PreparedStatement stmt = connection.prepareStatement(
                     "SELECT * FROM users WHERE username = ?");
             stmt.setString(1, username);
@@ -195,19 +236,30 @@ public class MySQLManager implements DatabaseManager {
 
     @Override
     public boolean registerUser(User user) {
-        try {
-            PreparedStatement stmt = connection.prepareStatement(
-                    "INSERT INTO users (username, password, email, full_name, address) VALUES (?, ?, ?, ?, ?)");
-            stmt.setString(1, user.getUsername());
-            stmt.setString(2, user.getPassword()); // In a real app, use password hashing
-            stmt.setString(3, user.getEmail());
-            stmt.setString(4, user.getFullName());
-            stmt.setString(5, user.getAddress());
-
-            int rowsAffected = stmt.executeUpdate();
-            stmt.close();
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement stmt = connection.prepareStatement(
+                        "INSERT INTO users (username, password, email, full_name, address) VALUES (?, ?, ?, ?, ?)");
+                stmt.setString(1, user.getUsername());
+                stmt.setString(2, user.getPassword()); // In a real app, use password hashing
+                stmt.setString(3, user.getEmail());
+                stmt.setString(4, user.getFullName());
+                stmt.setString(5, user.getAddress());
+
+                int rowsAffected = stmt.executeUpdate();
+                stmt.close();
+
+                if (rowsAffected > 0) {
+                    adjustCounter(connection, "users", rowsAffected);
+                }
+                connection.commit();
 
-            return rowsAffected > 0;
+                return rowsAffected > 0;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             System.err.println("Error registering user: " + e.getMessage());
             e.printStackTrace();
@@ -217,7 +269,7 @@ public class MySQLManager implements DatabaseManager {
 
     @Override
     public boolean updateUser(User user) {
-        try {
+        try (Connection connection = getConnection()) {
             PreparedStatement stmt = connection.prepareStatement(
                     "UPDATE users SET email = ?, full_name = ?, address = ? WHERE id = ?");
             stmt.setString(1, user.getEmail());
@@ -245,34 +297,157 @@ public class MySQLManager implements DatabaseManager {
             return books;
         }
 
-        try {
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(
+        streamAllBooks(books::add);
+        return books;
+    }
+
+    @Override
+    public void streamAllBooks(Consumer<Book> consumer) {
+        try (Connection connection = getConnection()) {
+            PreparedStatement stmt = connection.prepareStatement(
                     "SELECT b.*, u.username as owner_name FROM books b " +
                             "JOIN users u ON b.owner_id = u.id " +
                             "WHERE b.available = TRUE");
+            // Forward-only cursor, rows arrive in fetchSize batches instead of all at once
+            stmt.setFetchSize(fetchSize);
+            ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
-                Book book = new Book();
-                book.setId(String.valueOf(rs.getInt("id")));
-                book.setTitle(rs.getString("title"));
-                book.setAuthor(rs.getString("author"));
-                book.setIsbn(rs.getString("isbn"));
-                book.setDescription(rs.getString("description"));
-                book.setCondition(rs.getString("condition"));
-                book.setOwnerId(String.valueOf(rs.getInt("owner_id")));
+                Book book = mapBook(rs);
+                book.setOwnerName(rs.getString("owner_name"));
+                consumer.accept(book);
+            }
+
+            rs.close();
+            stmt.close();
+        } catch (SQLException e) {
+            System.err.println("Error getting all books: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public List<Book> getAvailableBooksPage(String afterBookId, int pageSize, String excludeOwnerId) {
+        List<Book> books = new ArrayList<>();
+
+        try (Connection connection = getConnection()) {
+            // Seek past the last id of the previous page so every page is an index range scan
+            PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT b.*, u.username as owner_name FROM books b " +
+                            "JOIN users u ON b.owner_id = u.id " +
+                            "WHERE b.available = TRUE AND b.id > ? AND b.owner_id <> ? " +
+                            "ORDER BY b.id " +
+                            "LIMIT ?");
+            stmt.setInt(1, afterBookId == null ? 0 : Integer.parseInt(afterBookId));
+            stmt.setInt(2, excludeOwnerId == null ? 0 : Integer.parseInt(excludeOwnerId));
+            stmt.setInt(3, pageSize);
+
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                Book book = mapBook(rs);
                 book.setOwnerName(rs.getString("owner_name"));
-                book.setAvailable(rs.getBoolean("available"));
                 books.add(book);
+            }
+
+            rs.close();
+            stmt.close();
+        } catch (SQLException e) {
+            System.err.println("Error getting available books page: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return books;
+    }
+
+    @Override
+    public Book getBookById(String bookId) {
+        int id;
+        try {
+            id = Integer.parseInt(bookId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        try (Connection connection = getConnection()) {
+            PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT b.*, u.username as owner_name FROM books b " +
+                            "JOIN users u ON b.owner_id = u.id " +
+                            "WHERE b.id = ?");
+            stmt.setInt(1, id);
 
-                // Debug output
-                System.out.println("Found available book: " + book.getTitle() + " by " + book.getAuthor());
+            ResultSet rs = stmt.executeQuery();
+            Book book = null;
+
+            if (rs.next()) {
+                book = mapBook(rs);
+                book.setOwnerName(rs.getString("owner_name"));
             }
 
             rs.close();
             stmt.close();
+
+            return book;
         } catch (SQLException e) {
-            System.err.println("Error getting all books: " + e.getMessage());
+            System.err.println("Error getting book by id: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public List<Book> getBooksByIds(Collection<String> bookIds) {
+        List<Integer> ids = new ArrayList<>();
+        for (String bookId : new LinkedHashSet<>(bookIds)) {
+            try {
+                ids.add(Integer.parseInt(bookId));
+            } catch (NumberFormatException e) {
+                // Not an id this backend could have issued
+            }
+        }
+
+        List<Book> books = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return books;
+        }
+
+        try (Connection connection = getConnection()) {
+            for (int start = 0; start < ids.size(); start += MAX_IN_LIST_SIZE) {
+                List<Integer> chunk = ids.subList(start, Math.min(start + MAX_IN_LIST_SIZE, ids.size()));
+
+                // Pad the IN list to a power of two so only a handful of distinct statements get prepared
+                int placeholders = Integer.highestOneBit(chunk.size());
+                if (placeholders < chunk.size()) {
+                    placeholders <<= 1;
+                }
+
+                StringBuilder sql = new StringBuilder(
+                        "SELECT b.*, u.username as owner_name FROM books b " +
+                                "JOIN users u ON b.owner_id = u.id " +
+                                "WHERE b.id IN (");
+                for (int i = 0; i < placeholders; i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(")");
+
+                PreparedStatement stmt = connection.prepareStatement(sql.toString());
+                for (int i = 0; i < placeholders; i++) {
+                    stmt.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+
+                ResultSet rs = stmt.executeQuery();
+
+                while (rs.next()) {
+                    Book book = mapBook(rs);
+                    book.setOwnerName(rs.getString("owner_name"));
+                    books.add(book);
+                }
+
+                rs.close();
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting books by ids: " + e.getMessage());
             e.printStackTrace();
         }
 
@@ -282,27 +457,24 @@ public class MySQLManager implements DatabaseManager {
     @Override
     public List<Book> getBooksByUser(String username) {
         List<Book> books = new ArrayList<>();
+        streamBooksByUser(username, books::add);
+        return books;
+    }
 
-        try {
+    @Override
+    public void streamBooksByUser(String username, Consumer<Book> consumer) {
+        try (Connection connection = getConnection()) {
             PreparedStatement stmt = connection.prepareStatement(
                     "SELECT b.* FROM books b " +
                             "JOIN users u ON b.owner_id = u.id " +
                             "WHERE u.username = ?");
             stmt.setString(1, username);
+            stmt.setFetchSize(fetchSize);
 
             ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
-                Book book = new Book();
-                book.setId(String.valueOf(rs.getInt("id")));
-                book.setTitle(rs.getString("title"));
-                book.setAuthor(rs.getString("author"));
-                book.setIsbn(rs.getString("isbn"));
-                book.setDescription(rs.getString("description"));
-                book.setCondition(rs.getString("condition"));
-                book.setOwnerId(String.valueOf(rs.getInt("owner_id")));
-                book.setAvailable(rs.getBoolean("available"));
-                books.add(book);
+                consumer.accept(mapBook(rs));
             }
 
             rs.close();
@@ -311,47 +483,196 @@ public class MySQLManager implements DatabaseManager {
             System.err.println("Error getting books by user: " + e.getMessage());
             e.printStackTrace();
         }
+    }
 
-        return books;
+    private Book mapBook(ResultSet rs) throws SQLException {
+        Book book = new Book();
+        book.setId(String.valueOf(rs.getInt("id")));
+        book.setTitle(rs.getString("title"));
+        book.setAuthor(rs.getString("author"));
+        book.setIsbn(rs.getString("isbn"));
+        book.setDescription(rs.getString("description"));
+        book.setCondition(rs.getString("condition"));
+        book.setOwnerId(String.valueOf(rs.getInt("owner_id")));
+        book.setAvailable(rs.getBoolean("available"));
+        return book;
     }
 
     @Override
     public boolean addBook(Book book) {
-        try {
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement stmt = connection.prepareStatement(
+                        "INSERT INTO books (title, author, isbn, description, `condition`, owner_id) " +
+                                "VALUES (?, ?, ?, ?, ?, ?)");
+                stmt.setString(1, book.getTitle());
+                stmt.setString(2, book.getAuthor());
+                stmt.setString(3, book.getIsbn());
+                stmt.setString(4, book.getDescription());
+                stmt.setString(5, book.getCondition());
+                stmt.setInt(6, Integer.parseInt(book.getOwnerId()));
+
+                int rowsAffected = stmt.executeUpdate();
+                stmt.close();
+
+                if (rowsAffected > 0) {
+                    adjustCounter(connection, "books", rowsAffected);
+                }
+                connection.commit();
+
+                return rowsAffected > 0;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            System.err.println("Error adding book: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public BulkInsertResult addBooks(List<Book> books) {
+        BulkInsertResult result = new BulkInsertResult();
+        // Rows before this index are already reported as inserted or failed
+        int next = 0;
+        String notAttempted = "Not inserted, an earlier chunk failed";
+
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
             PreparedStatement stmt = connection.prepareStatement(
                     "INSERT INTO books (title, author, isbn, description, `condition`, owner_id) " +
                             "VALUES (?, ?, ?, ?, ?, ?)");
-            stmt.setString(1, book.getTitle());
-            stmt.setString(2, book.getAuthor());
-            stmt.setString(3, book.getIsbn());
-            stmt.setString(4, book.getDescription());
-            stmt.setString(5, book.getCondition());
-            stmt.setInt(6, Integer.parseInt(book.getOwnerId()));
 
-            int rowsAffected = stmt.executeUpdate();
-            stmt.close();
+            // One transaction per chunk keeps lock time and undo size bounded
+            for (int start = 0; start < books.size(); start += batchSize) {
+                int end = Math.min(start + batchSize, books.size());
+                boolean usable = insertBookChunk(connection, stmt, books, start, end, result);
+                next = end;
+                if (!usable) {
+                    break;
+                }
+            }
 
-            return rowsAffected > 0;
+            stmt.close();
         } catch (SQLException e) {
-            System.err.println("Error adding book: " + e.getMessage());
+            System.err.println("Error adding books: " + e.getMessage());
             e.printStackTrace();
+            notAttempted = e.getMessage();
+        }
+
+        // Chunks never attempted because the connection failed still get an answer for every row
+        failBooks(result, next, books.size(), notAttempted);
+        return result;
+    }
+
+    // Reports every row of the chunk as inserted or failed. Returns false when the chunk failed as a whole,
+    // for example on a deadlock over the system_stats row or a dropped link, so later chunks are not tried
+    private boolean insertBookChunk(Connection connection, PreparedStatement stmt, List<Book> books,
+                                    int start, int end, BulkInsertResult result) {
+        List<Integer> batched = new ArrayList<>();
+        try {
+            for (int i = start; i < end; i++) {
+                try {
+                    bindBook(stmt, books.get(i));
+                    stmt.addBatch();
+                    batched.add(i);
+                } catch (NumberFormatException e) {
+                    result.addFailure(i, "Invalid owner id: " + books.get(i).getOwnerId());
+                }
+            }
+
+            stmt.executeBatch();
+            adjustCounter(connection, "books", batched.size());
+            connection.commit();
+            result.addInserted(batched.size());
+            return true;
+        } catch (BatchUpdateException e) {
+            return replayBookChunk(connection, stmt, books, batched, result);
+        } catch (SQLException e) {
+            System.err.println("Error adding books " + start + " to " + (end - 1) + ": " + e.getMessage());
+            rollbackQuietly(connection);
+            failBooks(result, start, end, e.getMessage());
+            return false;
+        }
+    }
+
+    // A rewritten batch fails as a whole, so replay the chunk row by row to isolate the bad rows
+    private boolean replayBookChunk(Connection connection, PreparedStatement stmt, List<Book> books,
+                                    List<Integer> batched, BulkInsertResult result) {
+        try {
+            connection.rollback();
+            stmt.clearBatch();
+        } catch (SQLException e) {
+            for (int i : batched) {
+                result.addFailure(i, e.getMessage());
+            }
+            return false;
+        }
+
+        for (int k = 0; k < batched.size(); k++) {
+            int i = batched.get(k);
+            try {
+                bindBook(stmt, books.get(i));
+                stmt.executeUpdate();
+                adjustCounter(connection, "books", 1);
+                connection.commit();
+                result.addInserted(1);
+            } catch (SQLException rowError) {
+                result.addFailure(i, rowError.getMessage());
+                if (!rollbackQuietly(connection)) {
+                    for (int rest : batched.subList(k + 1, batched.size())) {
+                        result.addFailure(rest, "Not inserted, the connection failed: " + rowError.getMessage());
+                    }
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Rows already reported as failed keep their own reason
+    private void failBooks(BulkInsertResult result, int start, int end, String reason) {
+        for (int i = start; i < end; i++) {
+            if (!result.getFailures().containsKey(i)) {
+                result.addFailure(i, reason);
+            }
+        }
+    }
+
+    private boolean rollbackQuietly(Connection connection) {
+        try {
+            connection.rollback();
+            return true;
+        } catch (SQLException e) {
             return false;
         }
     }
 
+    private void bindBook(PreparedStatement stmt, Book book) throws SQLException {
+        stmt.setString(1, book.getTitle());
+        stmt.setString(2, book.getAuthor());
+        stmt.setString(3, book.getIsbn());
+        stmt.setString(4, book.getDescription());
+        stmt.setString(5, book.getCondition());
+        stmt.setInt(6, Integer.parseInt(book.getOwnerId()));
+    }
+
+    // Availability belongs to the exchange flow; an edit made from an older copy of the book must not undo a claim
     @Override
     public boolean updateBook(Book book) {
-        try {
+        try (Connection connection = getConnection()) {
             PreparedStatement stmt = connection.prepareStatement(
                     "UPDATE books SET title = ?, author = ?, isbn = ?, " +
-                            "description = ?, `condition` = ?, available = ? WHERE id = ?");
+                            "description = ?, `condition` = ? WHERE id = ?");
             stmt.setString(1, book.getTitle());
             stmt.setString(2, book.getAuthor());
             stmt.setString(3, book.getIsbn());
             stmt.setString(4, book.getDescription());
             stmt.setString(5, book.getCondition());
-            stmt.setBoolean(6, book.isAvailable());
-            stmt.setInt(7, Integer.parseInt(book.getId()));
+            stmt.setInt(6, Integer.parseInt(book.getId()));
 
             int rowsAffected = stmt.executeUpdate();
             stmt.close();
@@ -366,15 +687,26 @@ public class MySQLManager implements DatabaseManager {
 
     @Override
     public boolean deleteBook(String bookId) {
-        try {
-            PreparedStatement stmt = connection.prepareStatement(
-                    "DELETE FROM books WHERE id = ?");
-            stmt.setInt(1, Integer.parseInt(bookId));
-
-            int rowsAffected = stmt.executeUpdate();
-            stmt.close();
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                PreparedStatement stmt = connection.prepareStatement(
+                        "DELETE FROM books WHERE id = ?");
+                stmt.setInt(1, Integer.parseInt(bookId));
+
+                int rowsAffected = stmt.executeUpdate();
+                stmt.close();
+
+                if (rowsAffected > 0) {
+                    adjustCounter(connection, "books", -rowsAffected);
+                }
+                connection.commit();
 
-            return rowsAffected > 0;
+                return rowsAffected > 0;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             System.err.println("Error deleting book: " + e.getMessage());
             e.printStackTrace();
@@ -384,34 +716,76 @@ public class MySQLManager implements DatabaseManager {
 
     @Override
     public List<Exchange> getExchangesByUser(String username) {
+        return getExchangesByUser(username, null, 0);
+    }
+
+    @Override
+    public List<Exchange> getExchangesByUser(String username, String status, int limit) {
         List<Exchange> exchanges = new ArrayList<>();
+        queryExchangesByUser(username, status, limit, exchanges::add);
+        return exchanges;
+    }
 
-        try {
+    @Override
+    public void streamExchangesByUser(String username, Consumer<Exchange> consumer) {
+        queryExchangesByUser(username, null, 0, consumer);
+    }
+
+    private void queryExchangesByUser(String username, String status, int limit, Consumer<Exchange> consumer) {
+        try (Connection connection = getConnection()) {
+            // Resolve the username once so both sides below are plain index range lookups
+            PreparedStatement userStmt = connection.prepareStatement("SELECT id FROM users WHERE username = ?");
+            userStmt.setString(1, username);
+            ResultSet userRs = userStmt.executeQuery();
+            int userId = userRs.next() ? userRs.getInt("id") : -1;
+            userRs.close();
+            userStmt.close();
+
+            if (userId == -1) {
+                return;
+            }
+
+            String statusFilter = status != null ? " AND status = ?" : "";
+            String branchLimit = limit > 0 ? " ORDER BY request_date DESC LIMIT ?" : "";
+
+            // One branch per role instead of an OR across joins; the provider branch skips exchanges
+            // the user requested from themselves so they are not returned twice
             PreparedStatement stmt = connection.prepareStatement(
                     "SELECT e.*, b.title, requester.username as requester_name, provider.username as provider_name " +
-                            "FROM exchanges e " +
+                            "FROM (" +
+                            "(SELECT * FROM exchanges WHERE requester_id = ?" + statusFilter + branchLimit + ") " +
+                            "UNION ALL " +
+                            "(SELECT * FROM exchanges WHERE provider_id = ? AND requester_id <> ?" + statusFilter + branchLimit + ")" +
+                            ") e " +
                             "JOIN books b ON e.book_id = b.id " +
                             "JOIN users requester ON e.requester_id = requester.id " +
                             "JOIN users provider ON e.provider_id = provider.id " +
-                            "WHERE requester.username = ? OR provider.username = ?");
-            stmt.setString(1, username);
-            stmt.setString(2, username);
+                            "ORDER BY e.request_date DESC" +
+                            (limit > 0 ? " LIMIT ?" : ""));
+
+            int index = 1;
+            stmt.setInt(index++, userId);
+            if (status != null) {
+                stmt.setString(index++, status);
+            }
+            if (limit > 0) {
+                stmt.setInt(index++, limit);
+            }
+            stmt.setInt(index++, userId);
+            stmt.setInt(index++, userId);
+            if (status != null) {
+                stmt.setString(index++, status);
+            }
+            if (limit > 0) {
+                stmt.setInt(index++, limit);
+                stmt.setInt(index, limit);
+            }
+            stmt.setFetchSize(fetchSize);
 
             ResultSet rs = stmt.executeQuery();
 
             while (rs.next()) {
-                Exchange exchange = new Exchange();
-                exchange.setId(String.valueOf(rs.getInt("id")));
-                exchange.setRequesterId(String.valueOf(rs.getInt("requester_id")));
-                exchange.setProviderId(String.valueOf(rs.getInt("provider_id")));
-                exchange.setBookId(String.valueOf(rs.getInt("book_id")));
-                exchange.setBookTitle(rs.getString("title"));
-                exchange.setRequesterName(rs.getString("requester_name"));
-                exchange.setProviderName(rs.getString("provider_name"));
-                exchange.setStatus(rs.getString("status"));
-                exchange.setRequestDate(rs.getTimestamp("request_date"));
-                exchange.setCompletionDate(rs.getTimestamp("completion_date"));
-                exchanges.add(exchange);
+                consumer.accept(mapExchange(rs));
             }
 
             rs.close();
@@ -420,43 +794,99 @@ public class MySQLManager implements DatabaseManager {
             System.err.println("Error getting exchanges by user: " + e.getMessage());
             e.printStackTrace();
         }
-
-        return exchanges;
     }
 
     @Override
-    public boolean createExchange(Exchange exchange) {
+    public Exchange getExchangeById(String exchangeId) {
+        int id;
         try {
-            PreparedStatement stmt = connection.prepareStatement(
-                    "INSERT INTO exchanges (requester_id, provider_id, book_id) " +
-                            "VALUES (?, ?, ?)");
-            stmt.setInt(1, Integer.parseInt(exchange.getRequesterId()));
-            stmt.setInt(2, Integer.parseInt(exchange.getProviderId()));
-            stmt.setInt(3, Integer.parseInt(exchange.getBookId()));
+            id = Integer.parseInt(exchangeId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
 
-            int rowsAffected = stmt.executeUpdate();
+        try (Connection connection = getConnection()) {
+            PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT e.*, b.title, requester.username as requester_name, provider.username as provider_name " +
+                            "FROM exchanges e " +
+                            "JOIN books b ON e.book_id = b.id " +
+                            "JOIN users requester ON e.requester_id = requester.id " +
+                            "JOIN users provider ON e.provider_id = provider.id " +
+                            "WHERE e.id = ?");
+            stmt.setInt(1, id);
 
-            if (rowsAffected > 0) {
-                // Mark book as unavailable
-                PreparedStatement updateBook = connection.prepareStatement(
-                        "UPDATE books SET available = FALSE WHERE id = ?");
-                updateBook.setInt(1, Integer.parseInt(exchange.getBookId()));
-                updateBook.executeUpdate();
-                updateBook.close();
-            }
+            ResultSet rs = stmt.executeQuery();
+            Exchange exchange = rs.next() ? mapExchange(rs) : null;
 
+            rs.close();
             stmt.close();
-            return rowsAffected > 0;
+
+            return exchange;
+        } catch (SQLException e) {
+            System.err.println("Error getting exchange by id: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private Exchange mapExchange(ResultSet rs) throws SQLException {
+        Exchange exchange = new Exchange();
+        exchange.setId(String.valueOf(rs.getInt("id")));
+        exchange.setRequesterId(String.valueOf(rs.getInt("requester_id")));
+        exchange.setProviderId(String.valueOf(rs.getInt("provider_id")));
+        exchange.setBookId(String.valueOf(rs.getInt("book_id")));
+        exchange.setBookTitle(rs.getString("title"));
+        exchange.setRequesterName(rs.getString("requester_name"));
+        exchange.setProviderName(rs.getString("provider_name"));
+        exchange.setStatus(rs.getString("status"));
+        exchange.setRequestDate(rs.getTimestamp("request_date"));
+        exchange.setCompletionDate(rs.getTimestamp("completion_date"));
+        return exchange;
+    }
+
+    @Override
+    public ExchangeResult createExchange(Exchange exchange) {
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                // Claim the book first; only one concurrent request can flip it from available
+                PreparedStatement claimBook = connection.prepareStatement(
+                        "UPDATE books SET available = FALSE WHERE id = ? AND available = TRUE");
+                claimBook.setInt(1, Integer.parseInt(exchange.getBookId()));
+                int claimed = claimBook.executeUpdate();
+                claimBook.close();
+
+                if (claimed == 0) {
+                    connection.rollback();
+                    return ExchangeResult.ALREADY_TAKEN;
+                }
+
+                PreparedStatement stmt = connection.prepareStatement(
+                        "INSERT INTO exchanges (requester_id, provider_id, book_id) " +
+                                "VALUES (?, ?, ?)");
+                stmt.setInt(1, Integer.parseInt(exchange.getRequesterId()));
+                stmt.setInt(2, Integer.parseInt(exchange.getProviderId()));
+                stmt.setInt(3, Integer.parseInt(exchange.getBookId()));
+                stmt.executeUpdate();
+                stmt.close();
+
+                adjustCounter(connection, "exchanges", 1);
+                connection.commit();
+                return ExchangeResult.CREATED;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
         } catch (SQLException e) {
             System.err.println("Error creating exchange: " + e.getMessage());
             e.printStackTrace();
-            return false;
+            return ExchangeResult.FAILED;
         }
     }
 
     @Override
     public boolean updateExchangeStatus(String exchangeId, String status) {
-        try {
+        try (Connection connection = getConnection()) {
             PreparedStatement stmt;
 
             if ("COMPLETED".equals(status)) {
@@ -465,28 +895,7 @@ public class MySQLManager implements DatabaseManager {
                 stmt.setString(1, status);
                 stmt.setInt(2, Integer.parseInt(exchangeId));
             } else if ("CANCELLED".equals(status)) {
-                stmt = connection.prepareStatement(
-                        "UPDATE exchanges SET status = ? WHERE id = ?");
-                stmt.setString(1, status);
-                stmt.setInt(2, Integer.parseInt(exchangeId));
-
-                // Make the book available again
-                PreparedStatement getBookId = connection.prepareStatement(
-                        "SELECT book_id FROM exchanges WHERE id = ?");
-                getBookId.setInt(1, Integer.parseInt(exchangeId));
-                ResultSet rs = getBookId.executeQuery();
-
-                if (rs.next()) {
-                    int bookId = rs.getInt("book_id");
-                    PreparedStatement updateBook = connection.prepareStatement(
-                            "UPDATE books SET available = TRUE WHERE id = ?");
-                    updateBook.setInt(1, bookId);
-                    updateBook.executeUpdate();
-                    updateBook.close();
-                }
-
-                rs.close();
-                getBookId.close();
+                return cancelExchange(connection, Integer.parseInt(exchangeId));
             } else {
                 stmt = connection.prepareStatement(
                         "UPDATE exchanges SET status = ? WHERE id = ?");
@@ -505,11 +914,48 @@ public class MySQLManager implements DatabaseManager {
         }
     }
 
+    // Only the first cancellation releases the book; a repeated one must not free a book someone claimed since
+    private boolean cancelExchange(Connection connection, int exchangeId) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            PreparedStatement cancel = connection.prepareStatement(
+                    "UPDATE exchanges SET status = 'CANCELLED' WHERE id = ? AND status <> 'CANCELLED'");
+            cancel.setInt(1, exchangeId);
+            int cancelled = cancel.executeUpdate();
+            cancel.close();
+
+            boolean found = cancelled > 0;
+            if (found) {
+                // Make the book available again
+                PreparedStatement release = connection.prepareStatement(
+                        "UPDATE books b JOIN exchanges e ON e.book_id = b.id SET b.available = TRUE WHERE e.id = ?");
+                release.setInt(1, exchangeId);
+                release.executeUpdate();
+                release.close();
+            } else {
+                PreparedStatement exists = connection.prepareStatement("SELECT 1 FROM exchanges WHERE id = ?");
+                exists.setInt(1, exchangeId);
+                ResultSet rs = exists.executeQuery();
+                found = rs.next();
+                rs.close();
+                exists.close();
+            }
+
+            connection.commit();
+            return found;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
     @Override
     public List<Book> getMostExchangedBooks(int limit) {
         List<Book> books = new ArrayList<>();
 
-        try {
+        try (Connection connection = getConnection()) {
             PreparedStatement stmt = connection.prepareStatement(
                     "SELECT b.*, COUNT(e.id) as exchange_count, u.username as owner_name " +
                             "FROM books b " +
@@ -548,11 +994,25 @@ public class MySQLManager implements DatabaseManager {
     public List<User> getMostActiveUsers(int limit) {
         List<User> users = new ArrayList<>();
 
-        try {
+        try (Connection connection = getConnection()) {
+            // Count every exchange once per participant, then join users. Each side is grouped on its own so
+            // only one row per user goes through the union, not one per exchange. The provider side skips
+            // rows where the user requested their own book so such an exchange still counts once, and the
+            // LEFT JOIN keeps users without exchanges at zero.
             PreparedStatement stmt = connection.prepareStatement(
-                    "SELECT u.*, " +
-                            "(SELECT COUNT(*) FROM exchanges e WHERE e.requester_id = u.id OR e.provider_id = u.id) as exchange_count " +
+                    "SELECT u.id, u.username, u.email, u.full_name, " +
+                            "COALESCE(activity.exchange_count, 0) as exchange_count " +
                             "FROM users u " +
+                            "LEFT JOIN (" +
+                            "SELECT participant_id, SUM(exchange_count) as exchange_count FROM (" +
+                            "SELECT requester_id as participant_id, COUNT(*) as exchange_count " +
+                            "FROM exchanges GROUP BY requester_id " +
+                            "UNION ALL " +
+                            "SELECT provider_id, COUNT(*) FROM exchanges WHERE provider_id <> requester_id " +
+                            "GROUP BY provider_id" +
+                            ") participants " +
+                            "GROUP BY participant_id" +
+                            ") activity ON activity.participant_id = u.id " +
                             "ORDER BY exchange_count DESC " +
                             "LIMIT ?");
             stmt.setInt(1, limit);
@@ -581,67 +1041,87 @@ public class MySQLManager implements DatabaseManager {
 
     @Override
     public int getTotalExchanges() {
-        try {
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) as total FROM exchanges");
-
-            int total = 0;
-            if (rs.next()) {
-                total = rs.getInt("total");
-            }
+        return getSystemStats().getTotalExchanges();
+    }
 
-            rs.close();
-            stmt.close();
+    @Override
+    public int getTotalBooks() {
+        return getSystemStats().getTotalBooks();
+    }
 
-            return total;
-        } catch (SQLException e) {
-            System.err.println("Error getting total exchanges: " + e.getMessage());
-            e.printStackTrace();
-            return 0;
-        }
+    @Override
+    public int getTotalUsers() {
+        return getSystemStats().getTotalUsers();
     }
 
     @Override
-    public int getTotalBooks() {
-        try {
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) as total FROM books");
+    public SystemStats getSystemStats() {
+        SystemStats stats = new SystemStats();
 
-            int total = 0;
-            if (rs.next()) {
-                total = rs.getInt("total");
+        try (Connection connection = getConnection()) {
+            PreparedStatement stmt = connection.prepareStatement("SELECT name, value FROM system_stats");
+            ResultSet rs = stmt.executeQuery();
+
+            while (rs.next()) {
+                applyCounter(stats, rs.getString("name"), rs.getInt("value"));
             }
 
             rs.close();
             stmt.close();
-
-            return total;
         } catch (SQLException e) {
-            System.err.println("Error getting total books: " + e.getMessage());
+            System.err.println("Error getting system stats: " + e.getMessage());
             e.printStackTrace();
-            return 0;
         }
+
+        return stats;
     }
 
     @Override
-    public int getTotalUsers() {
-        try {
-            Statement stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) as total FROM users");
-
-            int total = 0;
-            if (rs.next()) {
-                total = rs.getInt("total");
+    public SystemStats reconcileSystemStats() {
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                recountCounters(connection);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
             }
+        } catch (SQLException e) {
+            System.err.println("Error reconciling system stats: " + e.getMessage());
+            e.printStackTrace();
+        }
 
-            rs.close();
+        return getSystemStats();
+    }
+
+    // INSERT ... SELECT takes shared locks on the counted rows, so concurrent writers wait and the totals are exact
+    private void recountCounters(Connection connection) throws SQLException {
+        for (String table : new String[]{"books", "users", "exchanges"}) {
+            Statement stmt = connection.createStatement();
+            stmt.executeUpdate("INSERT INTO system_stats (name, value) " +
+                    "SELECT '" + table + "', COUNT(*) FROM " + table + " " +
+                    "ON DUPLICATE KEY UPDATE value = VALUES(value)");
             stmt.close();
+        }
+    }
 
-            return total;
-        } catch (SQLException e) {
-            System.err.println("Error getting total users: " + e.getMessage());
-            e.printStackTrace();
-            return 0;
+    // Must run inside the transaction of the write it accounts for
+    private void adjustCounter(Connection connection, String name, int delta) throws SQLException {
+        PreparedStatement stmt = connection.prepareStatement(
+                "UPDATE system_stats SET value = value + ? WHERE name = ?");
+        stmt.setInt(1, delta);
+        stmt.setString(2, name);
+        stmt.executeUpdate();
+        stmt.close();
+    }
+
+    private void applyCounter(SystemStats stats, String name, int value) {
+        switch (name) {
+            case "books": stats.setTotalBooks(value); break;
+            case "users": stats.setTotalUsers(value); break;
+            case "exchanges": stats.setTotalExchanges(value); break;
+            default: break;
         }
     }
 }
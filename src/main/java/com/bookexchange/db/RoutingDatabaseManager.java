@@ -0,0 +1,301 @@
+package com.bookexchange.db;
+
+import com.bookexchange.config.ConfigManager;
+import com.bookexchange.model.Book;
+import com.bookexchange.model.Exchange;
+import com.bookexchange.model.SystemStats;
+import com.bookexchange.model.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Sends writes to the MySQL primary and spreads catalog, exchange and report reads over healthy replicas
+public class RoutingDatabaseManager implements DatabaseManager {
+    private static final long MAX_RECONNECT_BACKOFF_MILLIS = 300000;
+
+    private final MySQLManager primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private ScheduledExecutorService healthChecker;
+    private long maxLagSeconds = 5;
+    private long stickyMillis = 5000;
+    private long healthIntervalMillis = 5000;
+    // Each client runs its own manager, so the last write here is the signed-in user's own write
+    private volatile long lastWriteAt;
+
+    public RoutingDatabaseManager(MySQLManager primary, List<MySQLManager> replicaManagers) {
+        this.primary = primary;
+        for (MySQLManager manager : replicaManagers) {
+            replicas.add(new Replica(manager));
+        }
+    }
+
+    @Override
+    public synchronized void connect() {
+        // A reconnect from Settings starts over with the new configuration; the old health checker and
+        // connections go first so there is never a second set of replica checks
+        if (healthChecker != null) {
+            disconnect();
+        }
+
+        ConfigManager config = ConfigManager.getInstance();
+        maxLagSeconds = config.getLongProperty(ConfigManager.DB_REPLICA_MAX_LAG_SECONDS, 5);
+        stickyMillis = config.getLongProperty(ConfigManager.DB_REPLICA_STICKY_MS, 5000);
+        healthIntervalMillis = config.getLongProperty(ConfigManager.DB_REPLICA_HEALTH_INTERVAL_MS, 5000);
+
+        primary.connect();
+        checkReplicas();
+
+        healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkReplicas,
+                healthIntervalMillis, healthIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkReplicas() {
+        long now = System.currentTimeMillis();
+        for (Replica replica : replicas) {
+            if (!replica.manager.isConnected()) {
+                // An unreachable replica is retried with exponential backoff instead of on every check
+                if (now < replica.nextConnectAt) {
+                    continue;
+                }
+                replica.manager.connect();
+                if (!replica.manager.isConnected()) {
+                    replica.failedConnects++;
+                    long backoff = healthIntervalMillis << Math.min(replica.failedConnects, 10);
+                    replica.nextConnectAt = now + Math.min(backoff, MAX_RECONNECT_BACKOFF_MILLIS);
+                    setHealthy(replica, false, "unreachable: " + replica.manager.getLastError());
+                    continue;
+                }
+                replica.failedConnects = 0;
+            }
+
+            long lag = replica.manager.getReplicationLagSeconds();
+            if (lag < 0) {
+                String error = replica.manager.getLastError();
+                setHealthy(replica, false, error != null ? "lag unknown: " + error : "not replicating");
+            } else if (lag > maxLagSeconds) {
+                setHealthy(replica, false, "lag " + lag + " s");
+            } else {
+                setHealthy(replica, true, null);
+            }
+        }
+    }
+
+    // Logs only when a replica changes state, so a replica that stays down is reported once
+    private void setHealthy(Replica replica, boolean healthy, String reason) {
+        if (healthy != replica.healthy || !replica.reported) {
+            System.out.println("Replica " + replica.manager + (healthy ? " is in rotation" :
+                    " taken out of rotation (" + reason + ")"));
+            replica.reported = true;
+        }
+        replica.healthy = healthy;
+    }
+
+    // Picks a healthy replica round robin; the primary when none is healthy or the user just wrote
+    private DatabaseManager reader() {
+        if (System.currentTimeMillis() - lastWriteAt < stickyMillis) {
+            return primary;
+        }
+
+        int size = replicas.size();
+        int start = Math.floorMod(nextReplica.getAndIncrement(), Math.max(1, size));
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                return replica.manager;
+            }
+        }
+        return primary;
+    }
+
+    private DatabaseManager writer() {
+        lastWriteAt = System.currentTimeMillis();
+        return primary;
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+            healthChecker = null;
+        }
+        for (Replica replica : replicas) {
+            replica.manager.disconnect();
+            replica.healthy = false;
+            replica.reported = false;
+            replica.failedConnects = 0;
+            replica.nextConnectAt = 0;
+        }
+        primary.disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return primary.isConnected();
+    }
+
+    // Sign-in and profile lookups stay on the primary so password and profile changes apply immediately
+    @Override
+    public boolean authenticateUser(String username, String password) {
+        return primary.authenticateUser(username, password);
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        return primary.getUserByUsername(username);
+    }
+
+    @Override
+    public boolean registerUser(User user) {
+        return writer().registerUser(user);
+    }
+
+    @Override
+    public boolean updateUser(User user) {
+        return writer().updateUser(user);
+    }
+
+    @Override
+    public List<Book> getAllBooks() {
+        return reader().getAllBooks();
+    }
+
+    @Override
+    public Book getBookById(String bookId) {
+        return reader().getBookById(bookId);
+    }
+
+    @Override
+    public List<Book> getBooksByIds(Collection<String> bookIds) {
+        return reader().getBooksByIds(bookIds);
+    }
+
+    @Override
+    public List<Book> getBooksByUser(String username) {
+        return reader().getBooksByUser(username);
+    }
+
+    @Override
+    public void streamAllBooks(Consumer<Book> consumer) {
+        reader().streamAllBooks(consumer);
+    }
+
+    @Override
+    public void streamBooksByUser(String username, Consumer<Book> consumer) {
+        reader().streamBooksByUser(username, consumer);
+    }
+
+    @Override
+    public List<Book> getAvailableBooksPage(String afterBookId, int pageSize, String excludeOwnerId) {
+        return reader().getAvailableBooksPage(afterBookId, pageSize, excludeOwnerId);
+    }
+
+    @Override
+    public boolean addBook(Book book) {
+        return writer().addBook(book);
+    }
+
+    @Override
+    public BulkInsertResult addBooks(List<Book> books) {
+        return writer().addBooks(books);
+    }
+
+    @Override
+    public boolean updateBook(Book book) {
+        return writer().updateBook(book);
+    }
+
+    @Override
+    public boolean deleteBook(String bookId) {
+        return writer().deleteBook(bookId);
+    }
+
+    @Override
+    public List<Exchange> getExchangesByUser(String username) {
+        return reader().getExchangesByUser(username);
+    }
+
+    @Override
+    public List<Exchange> getExchangesByUser(String username, String status, int limit) {
+        return reader().getExchangesByUser(username, status, limit);
+    }
+
+    @Override
+    public void streamExchangesByUser(String username, Consumer<Exchange> consumer) {
+        reader().streamExchangesByUser(username, consumer);
+    }
+
+    @Override
+    public Exchange getExchangeById(String exchangeId) {
+        return reader().getExchangeById(exchangeId);
+    }
+
+    @Override
+    public ExchangeResult createExchange(Exchange exchange) {
+        return writer().createExchange(exchange);
+    }
+
+    @Override
+    public boolean updateExchangeStatus(String exchangeId, String status) {
+        return writer().updateExchangeStatus(exchangeId, status);
+    }
+
+    @Override
+    public List<Book> getMostExchangedBooks(int limit) {
+        return reader().getMostExchangedBooks(limit);
+    }
+
+    @Override
+    public List<User> getMostActiveUsers(int limit) {
+        return reader().getMostActiveUsers(limit);
+    }
+
+    @Override
+    public int getTotalExchanges() {
+        return reader().getTotalExchanges();
+    }
+
+    @Override
+    public int getTotalBooks() {
+        return reader().getTotalBooks();
+    }
+
+    @Override
+    public int getTotalUsers() {
+        return reader().getTotalUsers();
+    }
+
+    @Override
+    public SystemStats getSystemStats() {
+        return reader().getSystemStats();
+    }
+
+    @Override
+    public SystemStats reconcileSystemStats() {
+        return writer().reconcileSystemStats();
+    }
+
+    private static class Replica {
+        private final MySQLManager manager;
+        private volatile boolean healthy;
+        // Only touched by the health check
+        private boolean reported;
+        private int failedConnects;
+        private long nextConnectAt;
+
+        Replica(MySQLManager manager) {
+            this.manager = manager;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.bookexchange.db;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+// Brings the MySQL schema up to the latest version, one recorded migration at a time
+public class SchemaMigrator {
+    private static final String LOCK_NAME = "bookexchange.schema_migration";
+    private static final int LOCK_TIMEOUT_SECONDS = 60;
+    private static final int ER_DUP_KEYNAME = 1061;
+    private static final int ER_NO_SUCH_TABLE = 1146;
+
+    // Applied in order and never edited once shipped; schema changes go into a new version
+    private static final List<Migration> MIGRATIONS = List.of(
+            new Migration(1, "Create users, books and exchanges tables",
+                    "CREATE TABLE IF NOT EXISTS users (" +
+                            "id INT AUTO_INCREMENT PRIMARY KEY," +
+                            "username VARCHAR(50) UNIQUE NOT NULL," +
+                            "password VARCHAR(100) NOT NULL," +
+                            "email VARCHAR(100) UNIQUE NOT NULL," +
+                            "full_name VARCHAR(100)," +
+                            "address TEXT," +
+                            "registration_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP" +
+                            ")",
+                    // Note the backticks around `condition` as it's a reserved word
+                    "CREATE TABLE IF NOT EXISTS books (" +
+                            "id INT AUTO_INCREMENT PRIMARY KEY," +
+                            "title VARCHAR(100) NOT NULL," +
+                            "author VARCHAR(100) NOT NULL," +
+                            "isbn VARCHAR(20)," +
+                            "description TEXT," +
+                            "`condition` VARCHAR(20)," +
+                            "owner_id INT NOT NULL," +
+                            "available BOOLEAN DEFAULT TRUE," +
+                            "added_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                            "FOREIGN KEY (owner_id) REFERENCES users(id)" +
+                            ")",
+                    "CREATE TABLE IF NOT EXISTS exchanges (" +
+                            "id INT AUTO_INCREMENT PRIMARY KEY," +
+                            "requester_id INT NOT NULL," +
+                            "provider_id INT NOT NULL," +
+                            "book_id INT NOT NULL," +
+                            "status VARCHAR(20) DEFAULT 'PENDING'," +
+                            "request_date TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                            "completion_date TIMESTAMP NULL," +
+                            "FOREIGN KEY (requester_id) REFERENCES users(id)," +
+                            "FOREIGN KEY (provider_id) REFERENCES users(id)," +
+                            "FOREIGN KEY (book_id) REFERENCES books(id)" +
+                            ")"),
+            new Migration(2, "Secondary indexes for catalog and exchange queries",
+                    addIndex("books", "idx_books_available_id", "available, id"),
+                    addIndex("books", "idx_books_owner_available", "owner_id, available"),
+                    addIndex("exchanges", "idx_exchanges_requester_date", "requester_id, request_date"),
+                    addIndex("exchanges", "idx_exchanges_provider_date", "provider_id, request_date"),
+                    addIndex("exchanges", "idx_exchanges_book_status", "book_id, status")),
+            new Migration(3, "System stats counters",
+                    "CREATE TABLE IF NOT EXISTS system_stats (" +
+                            "name VARCHAR(32) PRIMARY KEY," +
+                            "value BIGINT NOT NULL DEFAULT 0" +
+                            ")",
+                    "INSERT INTO system_stats (name, value) SELECT 'books', COUNT(*) FROM books " +
+                            "ON DUPLICATE KEY UPDATE value = VALUES(value)",
+                    "INSERT INTO system_stats (name, value) SELECT 'users', COUNT(*) FROM users " +
+                            "ON DUPLICATE KEY UPDATE value = VALUES(value)",
+                    "INSERT INTO system_stats (name, value) SELECT 'exchanges', COUNT(*) FROM exchanges " +
+                            "ON DUPLICATE KEY UPDATE value = VALUES(value)")
+    );
+
+    // Online DDL keeps the table readable and writable while the index builds; servers that reject it for
+    // this table get a regular build instead
+    private static Step addIndex(String table, String name, String columns) {
+        return new Step("ALTER TABLE " + table + " ADD INDEX " + name + " (" + columns + "), " +
+                "ALGORITHM=INPLACE, LOCK=NONE",
+                "CREATE INDEX " + name + " ON " + table + " (" + columns + ")");
+    }
+
+    public static int getLatestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+    }
+
+    // A schema that is already current costs a single query; otherwise pending migrations run under a server lock
+    public void migrate(Connection connection) throws SQLException {
+        Map<Integer, String> applied = readAppliedVersions(connection);
+        if (applied != null && isCurrent(applied)) {
+            return;
+        }
+
+        acquireLock(connection);
+        try {
+            createVersionTable(connection);
+            // Another client may have migrated while we were waiting for the lock
+            applied = readAppliedVersions(connection);
+            if (isCurrent(applied)) {
+                return;
+            }
+
+            for (Migration migration : MIGRATIONS) {
+                if (!applied.containsKey(migration.version)) {
+                    apply(connection, migration);
+                }
+            }
+        } finally {
+            releaseLock(connection);
+        }
+    }
+
+    // Returns null when the version table does not exist yet
+    private Map<Integer, String> readAppliedVersions(Connection connection) throws SQLException {
+        Map<Integer, String> applied = new TreeMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_version")) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+        } catch (SQLException e) {
+            if (e.getErrorCode() == ER_NO_SUCH_TABLE) {
+                return null;
+            }
+            throw e;
+        }
+        return applied;
+    }
+
+    private boolean isCurrent(Map<Integer, String> applied) throws SQLException {
+        boolean current = true;
+        for (Migration migration : MIGRATIONS) {
+            String checksum = applied.get(migration.version);
+            if (checksum == null) {
+                current = false;
+            } else if (!checksum.equals(migration.checksum)) {
+                throw new SQLException("Schema migration " + migration.version + " (" + migration.description +
+                        ") was changed after it was applied");
+            }
+        }
+        return current;
+    }
+
+    private void createVersionTable(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_version (" +
+                    "version INT PRIMARY KEY," +
+                    "description VARCHAR(200) NOT NULL," +
+                    "checksum CHAR(64) NOT NULL," +
+                    "installed_on TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
+                    "execution_ms BIGINT NOT NULL" +
+                    ")");
+        }
+    }
+
+    private void apply(Connection connection, Migration migration) throws SQLException {
+        System.out.println("Applying schema migration " + migration.version + ": " + migration.description);
+        long start = System.currentTimeMillis();
+
+        // MySQL commits DDL implicitly, so every statement has to be safe to run again after a partial failure
+        try (Statement stmt = connection.createStatement()) {
+            for (Step step : migration.steps) {
+                try {
+                    execute(stmt, step.sql);
+                } catch (SQLException e) {
+                    if (step.fallback == null) {
+                        throw e;
+                    }
+                    System.err.println("Falling back for schema migration " + migration.version + ": " + e.getMessage());
+                    execute(stmt, step.fallback);
+                }
+            }
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO schema_version (version, description, checksum, execution_ms) VALUES (?, ?, ?, ?)")) {
+            stmt.setInt(1, migration.version);
+            stmt.setString(2, migration.description);
+            stmt.setString(3, migration.checksum);
+            stmt.setLong(4, System.currentTimeMillis() - start);
+            stmt.executeUpdate();
+        }
+    }
+
+    private void execute(Statement stmt, String sql) throws SQLException {
+        try {
+            stmt.execute(sql);
+        } catch (SQLException e) {
+            if (e.getErrorCode() != ER_DUP_KEYNAME) {
+                throw e;
+            }
+            // Index is already there, e.g. created by an older client before versioning
+        }
+    }
+
+    private void acquireLock(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Timed out after " + LOCK_TIMEOUT_SECONDS +
+                            " s waiting for another client to finish migrating the schema");
+                }
+            }
+        }
+    }
+
+    private void releaseLock(Connection connection) {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            stmt.setString(1, LOCK_NAME);
+            stmt.executeQuery().close();
+        } catch (SQLException e) {
+            // The server drops the lock with the session anyway
+            System.err.println("Error releasing schema migration lock: " + e.getMessage());
+        }
+    }
+
+    // One statement of a migration and, optionally, the statement to run instead when the server rejects it
+    private static final class Step {
+        private final String sql;
+        private final String fallback;
+
+        Step(String sql, String fallback) {
+            this.sql = sql;
+            this.fallback = fallback;
+        }
+
+        // The fallback is part of what was shipped, so it counts towards the checksum too
+        @Override
+        public String toString() {
+            return fallback == null ? sql : sql + "\n-- fallback: " + fallback;
+        }
+    }
+
+    private static final class Migration {
+        private final int version;
+        private final String description;
+        private final List<Step> steps;
+        private final String checksum;
+
+        Migration(int version, String description, String... statements) {
+            this(version, description, Arrays.stream(statements)
+                    .map(sql -> new Step(sql, null))
+                    .toArray(Step[]::new));
+        }
+
+        Migration(int version, String description, Step... steps) {
+            this.version = version;
+            this.description = description;
+            this.steps = List.of(steps);
+            this.checksum = sha256(this.steps.stream().map(Step::toString).collect(Collectors.joining(";\n")));
+        }
+
+        private static String sha256(String text) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder();
+                for (byte b : digest) {
+                    hex.append(String.format("%02x", b));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    }
+}
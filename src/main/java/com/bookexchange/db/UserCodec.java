@@ -0,0 +1,36 @@
+package com.bookexchange.db;
+
+import com.bookexchange.model.User;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.codecs.DecoderContext;
+
+public class UserCodec extends ModelCodec<User> {
+
+    @Override
+    public User decode(BsonReader reader, DecoderContext decoderContext) {
+        User user = new User();
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id": user.setId(readId(reader)); break;
+                case "username": user.setUsername(readString(reader)); break;
+                case "password": user.setPassword(readString(reader)); break;
+                case "email": user.setEmail(readString(reader)); break;
+                case "fullName": user.setFullName(readString(reader)); break;
+                case "address": user.setAddress(readString(reader)); break;
+                case "exchangeCount": user.setExchangeCount(readInt(reader)); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.readEndDocument();
+
+        return user;
+    }
+
+    @Override
+    public Class<User> getEncoderClass() {
+        return User.class;
+    }
+}
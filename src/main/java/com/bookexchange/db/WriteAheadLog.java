@@ -0,0 +1,259 @@
+package com.bookexchange.db;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only log of length-prefixed, CRC-checked records, split into numbered segment files.
+// Appends are queued and one writer thread writes and fsyncs everything queued so far in a single
+// batch (group commit); sync blocks until a record is on disk.
+public class WriteAheadLog implements Closeable {
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // A length past this is a damaged header, not a record
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private final Path directory;
+    private final long groupCommitMillis;
+    private final Thread writer;
+    private FileChannel channel;
+    private long segment;
+    private long segmentBytes;
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private long appended;
+    private long durable;
+    private long batches;
+    private IOException failure;
+    private boolean closed;
+
+    // Appends to the end of the given segment; groupCommitMillis lets a batch wait for more records before the fsync
+    public WriteAheadLog(Path directory, long segment, long groupCommitMillis) throws IOException {
+        this.directory = directory;
+        this.groupCommitMillis = groupCommitMillis;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+        this.segmentBytes = channel.size();
+        this.writer = new Thread(this::writeLoop, "embedded-wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        FileChannel opened = FileChannel.open(segmentPath(directory, number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncDirectory(directory);
+        return opened;
+    }
+
+    // Returns the record's sequence number for sync
+    public synchronized long append(byte[] payload) {
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Write-ahead log failed: " + failure.getMessage());
+        }
+        pending.add(frame(payload));
+        appended++;
+        notifyAll();
+        return appended;
+    }
+
+    public synchronized long lastSequence() {
+        return appended;
+    }
+
+    public synchronized void sync(long sequence) throws IOException, InterruptedException {
+        while (durable < sequence && failure == null) {
+            wait();
+        }
+        if (durable < sequence) {
+            throw new IOException("Write-ahead log failed", failure);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            List<ByteBuffer> batch;
+            long target;
+            FileChannel out;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !closed) {
+                        wait();
+                    }
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    long deadline = System.currentTimeMillis() + groupCommitMillis;
+                    long remaining;
+                    while (!closed && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        wait(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                target = appended;
+                out = channel;
+            }
+
+            try {
+                ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+                long bytes = 0;
+                for (ByteBuffer buffer : buffers) {
+                    bytes += buffer.remaining();
+                }
+                long written = 0;
+                while (written < bytes) {
+                    written += out.write(buffers);
+                }
+                // One fsync covers every record in the batch
+                out.force(false);
+
+                synchronized (this) {
+                    durable = target;
+                    segmentBytes += bytes;
+                    batches++;
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing write-ahead log: " + e.getMessage());
+                e.printStackTrace();
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    // Waits for everything appended to reach disk and continues in a new segment; returns its number.
+    // Records in older segments can be dropped once a snapshot taken after this call is written
+    public synchronized long rotate() throws IOException, InterruptedException {
+        while (durable < appended && failure == null) {
+            wait();
+        }
+        if (failure != null) {
+            throw new IOException("Write-ahead log failed", failure);
+        }
+        channel.close();
+        segment++;
+        channel = openSegment(segment);
+        segmentBytes = 0;
+        return segment;
+    }
+
+    public synchronized long getSegment() {
+        return segment;
+    }
+
+    public synchronized long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        // The writer drains what is still queued before it stops
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    public static ByteBuffer frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    // Reads records until the end of the stream or the first torn or damaged one, and returns how many
+    // bytes of valid records were read
+    public static long readRecords(InputStream stream, Consumer<byte[]> consumer) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(stream));
+        long valid = 0;
+        while (true) {
+            byte[] payload;
+            try {
+                int length = input.readInt();
+                int checksum = input.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    return valid;
+                }
+                payload = new byte[length];
+                input.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    return valid;
+                }
+            } catch (EOFException e) {
+                return valid;
+            }
+            consumer.accept(payload);
+            valid += 8 + payload.length;
+        }
+    }
+
+    public static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    // Segment numbers present in the directory, oldest first
+    public static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        return segments;
+    }
+
+    // Makes a created or renamed file survive a crash; not every platform can open a directory for this
+    public static void syncDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+}
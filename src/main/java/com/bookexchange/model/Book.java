@@ -26,6 +26,19 @@ public class Book {
         this.available = true;
     }
 
+    public Book(Book other) {
+        this.id = other.id;
+        this.title = other.title;
+        this.author = other.author;
+        this.isbn = other.isbn;
+        this.description = other.description;
+        this.condition = other.condition;
+        this.ownerId = other.ownerId;
+        this.ownerName = other.ownerName;
+        this.available = other.available;
+        this.exchangeCount = other.exchangeCount;
+    }
+
     // Getters and Setters
     public String getId() {
         return id;
@@ -19,6 +19,19 @@ public class Exchange {
         this.requestDate = new Date();
     }
 
+    public Exchange(Exchange other) {
+        this.id = other.id;
+        this.requesterId = other.requesterId;
+        this.requesterName = other.requesterName;
+        this.providerId = other.providerId;
+        this.providerName = other.providerName;
+        this.bookId = other.bookId;
+        this.bookTitle = other.bookTitle;
+        this.status = other.status;
+        this.requestDate = other.requestDate != null ? new Date(other.requestDate.getTime()) : null;
+        this.completionDate = other.completionDate != null ? new Date(other.completionDate.getTime()) : null;
+    }
+
     // Getters and Setters
     public String getId() {
         return id;
@@ -115,4 +115,25 @@ public class ModelTest {
         // Test toString
         assertEquals("Book Title - PENDING", exchange.toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSystemStatsModel() {
+        SystemStats stats = new SystemStats();
+        stats.setTotalBooks(10);
+        stats.setTotalUsers(4);
+        stats.setTotalExchanges(7);
+
+        assertEquals(10, stats.getTotalBooks());
+        assertEquals(4, stats.getTotalUsers());
+        assertEquals(7, stats.getTotalExchanges());
+
+        // Test constructor
+        SystemStats stats2 = new SystemStats(1, 2, 3);
+        assertEquals(1, stats2.getTotalBooks());
+        assertEquals(2, stats2.getTotalUsers());
+        assertEquals(3, stats2.getTotalExchanges());
+
+        // Test toString
+        assertEquals("10 books, 4 users, 7 exchanges", stats.toString());
+    }
+}
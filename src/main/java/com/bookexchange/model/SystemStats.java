@@ -0,0 +1,50 @@
+package com.bookexchange.model;
+
+public class SystemStats {
+    private int totalBooks;
+    private int totalUsers;
+    private int totalExchanges;
+
+    public SystemStats() {
+    }
+
+    public SystemStats(int totalBooks, int totalUsers, int totalExchanges) {
+        this.totalBooks = totalBooks;
+        this.totalUsers = totalUsers;
+        this.totalExchanges = totalExchanges;
+    }
+
+    public SystemStats(SystemStats other) {
+        this(other.totalBooks, other.totalUsers, other.totalExchanges);
+    }
+
+    // Getters and Setters
+    public int getTotalBooks() {
+        return totalBooks;
+    }
+
+    public void setTotalBooks(int totalBooks) {
+        this.totalBooks = totalBooks;
+    }
+
+    public int getTotalUsers() {
+        return totalUsers;
+    }
+
+    public void setTotalUsers(int totalUsers) {
+        this.totalUsers = totalUsers;
+    }
+
+    public int getTotalExchanges() {
+        return totalExchanges;
+    }
+
+    public void setTotalExchanges(int totalExchanges) {
+        this.totalExchanges = totalExchanges;
+    }
+
+    @Override
+    public String toString() {
+        return totalBooks + " books, " + totalUsers + " users, " + totalExchanges + " exchanges";
+    }
+}
@@ -20,6 +20,16 @@ public class User {
         this.address = address;
     }
 
+    public User(User other) {
+        this.id = other.id;
+        this.username = other.username;
+        this.password = other.password;
+        this.email = other.email;
+        this.fullName = other.fullName;
+        this.address = other.address;
+        this.exchangeCount = other.exchangeCount;
+    }
+
     // Getters and Setters
     public String getId() {
         return id;
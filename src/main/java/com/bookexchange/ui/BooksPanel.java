@@ -1,6 +1,7 @@
 package com.bookexchange.ui;
 
 import com.bookexchange.db.DatabaseManager;
+import com.bookexchange.db.ExchangeResult;
 import com.bookexchange.model.Book;
 import com.bookexchange.model.User;
 
@@ -11,15 +12,22 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
 import java.util.List;
 
 public class BooksPanel extends JPanel {
+    private static final int PAGE_SIZE = 50;
+
     private DatabaseManager dbManager;
     private User currentUser;
     private JTable booksTable;
     private DefaultTableModel tableModel;
     private JButton refreshButton;
     private JButton requestButton;
+    private JButton loadMoreButton;
+    private String lastBookId;
+    // Book id of each table row, in row order
+    private final List<String> rowBookIds = new ArrayList<>();
 
     public BooksPanel(DatabaseManager dbManager, User currentUser) {
         this.dbManager = dbManager;
@@ -32,9 +40,11 @@ public class BooksPanel extends JPanel {
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         refreshButton = new JButton("Yenile");
         requestButton = new JButton("Kitap İste");
+        loadMoreButton = new JButton("Daha Fazla Yükle");
 
         buttonPanel.add(refreshButton);
         buttonPanel.add(requestButton);
+        buttonPanel.add(loadMoreButton);
 
         add(buttonPanel, BorderLayout.NORTH);
 
@@ -69,6 +79,13 @@ public class BooksPanel extends JPanel {
             }
         });
 
+        loadMoreButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                loadNextPage();
+            }
+        });
+
         booksTable.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
@@ -85,26 +102,36 @@ public class BooksPanel extends JPanel {
     private void loadBooks() {
         // Clear table
         tableModel.setRowCount(0);
+        rowBookIds.clear();
+        lastBookId = null;
 
-        // Get all available books
-        List<Book> books = dbManager.getAllBooks();
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        // Get the next page of available books, the current user's books are filtered out by the query
+        List<Book> books = dbManager.getAvailableBooksPage(lastBookId, PAGE_SIZE, currentUser.getId());
         System.out.println("Yüklenen mevcut kitap sayısı: " + books.size());
 
         // Add books to table
         for (Book book : books) {
-            // Don't show the current user's books
-            if (!book.getOwnerId().equals(currentUser.getId())) {
-                Object[] row = {
-                        book.getTitle(),
-                        book.getAuthor(),
-                        book.getIsbn(),
-                        book.getCondition(),
-                        book.getOwnerName()
-                };
-                tableModel.addRow(row);
-                System.out.println("Tabloya eklendi: " + book.getTitle() + " - " + book.getAuthor() + " (Sahibi: " + book.getOwnerName() + ")");
-            }
+            Object[] row = {
+                    book.getTitle(),
+                    book.getAuthor(),
+                    book.getIsbn(),
+                    book.getCondition(),
+                    book.getOwnerName()
+            };
+            tableModel.addRow(row);
+            rowBookIds.add(book.getId());
         }
+
+        if (!books.isEmpty()) {
+            lastBookId = books.get(books.size() - 1).getId();
+        }
+
+        // A short page means we reached the end of the catalog
+        loadMoreButton.setEnabled(books.size() == PAGE_SIZE);
     }
 
     private void viewBookDetails() {
@@ -114,24 +141,8 @@ public class BooksPanel extends JPanel {
             return;
         }
 
-        String title = (String) tableModel.getValueAt(selectedRow, 0);
-        String author = (String) tableModel.getValueAt(selectedRow, 1);
-        String isbn = (String) tableModel.getValueAt(selectedRow, 2);
-        String condition = (String) tableModel.getValueAt(selectedRow, 3);
-        String ownerName = (String) tableModel.getValueAt(selectedRow, 4);
-
-        // Find the book in the database
-        List<Book> books = dbManager.getAllBooks();
-        Book selectedBook = null;
-
-        for (Book book : books) {
-            if (book.getTitle().equals(title) &&
-                    book.getAuthor().equals(author) &&
-                    book.getOwnerName().equals(ownerName)) {
-                selectedBook = book;
-                break;
-            }
-        }
+        // Fetch the clicked book by id
+        Book selectedBook = dbManager.getBookById(rowBookIds.get(selectedRow));
 
         if (selectedBook == null) {
             return;
@@ -212,22 +223,8 @@ public class BooksPanel extends JPanel {
             return;
         }
 
-        String title = (String) tableModel.getValueAt(selectedRow, 0);
-        String author = (String) tableModel.getValueAt(selectedRow, 1);
-        String ownerName = (String) tableModel.getValueAt(selectedRow, 4);
-
-        // Find the book in the database
-        List<Book> books = dbManager.getAllBooks();
-        Book selectedBook = null;
-
-        for (Book book : books) {
-            if (book.getTitle().equals(title) &&
-                    book.getAuthor().equals(author) &&
-                    book.getOwnerName().equals(ownerName)) {
-                selectedBook = book;
-                break;
-            }
-        }
+        // Fetch the selected book by id
+        Book selectedBook = dbManager.getBookById(rowBookIds.get(selectedRow));
 
         if (selectedBook == null) {
             return;
@@ -248,10 +245,15 @@ public class BooksPanel extends JPanel {
             exchange.setProviderId(book.getOwnerId());
             exchange.setBookId(book.getId());
 
-            if (dbManager.createExchange(exchange)) {
+            ExchangeResult result = dbManager.createExchange(exchange);
+            if (result == ExchangeResult.CREATED) {
                 JOptionPane.showMessageDialog(this, "Takas isteği başarıyla gönderildi",
                         "Başarılı", JOptionPane.INFORMATION_MESSAGE);
                 loadBooks();
+            } else if (result == ExchangeResult.ALREADY_TAKEN) {
+                JOptionPane.showMessageDialog(this, "Bu kitap başka bir kullanıcı tarafından zaten istendi",
+                        "Kitap Uygun Değil", JOptionPane.WARNING_MESSAGE);
+                loadBooks();
             } else {
                 JOptionPane.showMessageDialog(this, "Takas isteği gönderilirken hata oluştu",
                         "Hata", JOptionPane.ERROR_MESSAGE);
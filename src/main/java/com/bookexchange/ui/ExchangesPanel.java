@@ -12,6 +12,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ExchangesPanel extends JPanel {
@@ -21,6 +22,8 @@ public class ExchangesPanel extends JPanel {
     private DefaultTableModel tableModel;
     private JButton refreshButton;
     private SimpleDateFormat dateFormat;
+    // Exchange id of each table row, in row order
+    private final List<String> rowExchangeIds = new ArrayList<>();
 
     public ExchangesPanel(DatabaseManager dbManager, User currentUser) {
         this.dbManager = dbManager;
@@ -78,6 +81,7 @@ public class ExchangesPanel extends JPanel {
     private void loadExchanges() {
         // Clear table
         tableModel.setRowCount(0);
+        rowExchangeIds.clear();
 
         // Get user's exchanges
         List<Exchange> exchanges = dbManager.getExchangesByUser(currentUser.getUsername());
@@ -92,6 +96,7 @@ public class ExchangesPanel extends JPanel {
                     dateFormat.format(exchange.getRequestDate())
             };
             tableModel.addRow(row);
+            rowExchangeIds.add(exchange.getId());
         }
     }
 
@@ -113,24 +118,8 @@ public class ExchangesPanel extends JPanel {
             return;
         }
 
-        String bookTitle = (String) tableModel.getValueAt(selectedRow, 0);
-        String requesterName = (String) tableModel.getValueAt(selectedRow, 1);
-        String providerName = (String) tableModel.getValueAt(selectedRow, 2);
-        String status = (String) tableModel.getValueAt(selectedRow, 3);
-
-        // Find the exchange in the database
-        List<Exchange> exchanges = dbManager.getExchangesByUser(currentUser.getUsername());
-        Exchange selectedExchange = null;
-
-        for (Exchange exchange : exchanges) {
-            if (exchange.getBookTitle().equals(bookTitle) &&
-                    exchange.getRequesterName().equals(requesterName) &&
-                    exchange.getProviderName().equals(providerName) &&
-                    translateStatus(exchange.getStatus()).equals(status)) {
-                selectedExchange = exchange;
-                break;
-            }
-        }
+        // Fetch the clicked exchange by id
+        Exchange selectedExchange = dbManager.getExchangeById(rowExchangeIds.get(selectedRow));
 
         if (selectedExchange == null) {
             return;
@@ -1,6 +1,7 @@
 package com.bookexchange.ui;
 
 import com.bookexchange.config.ConfigManager;
+import com.bookexchange.db.AsyncDatabaseManager;
 import com.bookexchange.db.DatabaseFactory;
 import com.bookexchange.db.DatabaseManager;
 import com.bookexchange.model.User;
@@ -15,6 +16,7 @@ import java.awt.event.WindowEvent;
 public class MainFrame extends JFrame {
     private User currentUser;
     private DatabaseManager dbManager;
+    private AsyncDatabaseManager asyncDbManager;
     private JTabbedPane tabbedPane;
 
     // Tabs
@@ -47,6 +49,8 @@ public class MainFrame extends JFrame {
             }
         }
 
+        asyncDbManager = new AsyncDatabaseManager(dbManager);
+
         setTitle("Kitap Takası Sistemi - " + user.getUsername());
         setSize(800, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -56,9 +60,7 @@ public class MainFrame extends JFrame {
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                if (dbManager != null) {
-                    dbManager.disconnect();
-                }
+                closeDatabase();
             }
         });
 
@@ -70,7 +72,7 @@ public class MainFrame extends JFrame {
             booksPanel = new BooksPanel(dbManager, currentUser);
             myBooksPanel = new MyBooksPanel(dbManager, currentUser);
             exchangesPanel = new ExchangesPanel(dbManager, currentUser);
-            reportsPanel = new ReportsPanel(dbManager);
+            reportsPanel = new ReportsPanel(asyncDbManager);
             settingsPanel = new SettingsPanel();
 
             // Add tabs
@@ -103,9 +105,7 @@ public class MainFrame extends JFrame {
         exitItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if (dbManager != null) {
-                    dbManager.disconnect();
-                }
+                closeDatabase();
                 System.exit(0);
             }
         });
@@ -218,10 +218,15 @@ public class MainFrame extends JFrame {
         dialog.setVisible(true);
     }
 
-    private void logout() {
+    private void closeDatabase() {
+        asyncDbManager.close();
         if (dbManager != null) {
             dbManager.disconnect();
         }
+    }
+
+    private void logout() {
+        closeDatabase();
 
         LoginFrame loginFrame = new LoginFrame();
         loginFrame.setVisible(true);
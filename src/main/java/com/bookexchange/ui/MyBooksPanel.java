@@ -11,6 +11,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
 import java.util.List;
 
 public class MyBooksPanel extends JPanel {
@@ -22,6 +23,8 @@ public class MyBooksPanel extends JPanel {
     private JButton editButton;
     private JButton deleteButton;
     private JButton refreshButton;
+    // Book id of each table row, in row order
+    private final List<String> rowBookIds = new ArrayList<>();
 
     public MyBooksPanel(DatabaseManager dbManager, User currentUser) {
         this.dbManager = dbManager;
@@ -105,6 +108,7 @@ public class MyBooksPanel extends JPanel {
     private void loadBooks() {
         // Clear table
         tableModel.setRowCount(0);
+        rowBookIds.clear();
 
         // Get user's books
         List<Book> books = dbManager.getBooksByUser(currentUser.getUsername());
@@ -119,6 +123,7 @@ public class MyBooksPanel extends JPanel {
                     book.isAvailable() ? "Evet" : "Hayır"
             };
             tableModel.addRow(row);
+            rowBookIds.add(book.getId());
         }
     }
 
@@ -220,19 +225,8 @@ public class MyBooksPanel extends JPanel {
             return;
         }
 
-        String title = (String) tableModel.getValueAt(selectedRow, 0);
-        String author = (String) tableModel.getValueAt(selectedRow, 1);
-
-        // Find the book in the database
-        List<Book> books = dbManager.getBooksByUser(currentUser.getUsername());
-        Book selectedBook = null;
-
-        for (Book book : books) {
-            if (book.getTitle().equals(title) && book.getAuthor().equals(author)) {
-                selectedBook = book;
-                break;
-            }
-        }
+        // Fetch the selected book by id
+        Book selectedBook = dbManager.getBookById(rowBookIds.get(selectedRow));
 
         if (selectedBook == null) {
             return;
@@ -338,7 +332,6 @@ public class MyBooksPanel extends JPanel {
         }
 
         String title = (String) tableModel.getValueAt(selectedRow, 0);
-        String author = (String) tableModel.getValueAt(selectedRow, 1);
         boolean isAvailable = "Evet".equals(tableModel.getValueAt(selectedRow, 4));
 
         if (!isAvailable) {
@@ -347,16 +340,8 @@ public class MyBooksPanel extends JPanel {
             return;
         }
 
-        // Find the book in the database
-        List<Book> books = dbManager.getBooksByUser(currentUser.getUsername());
-        Book selectedBook = null;
-
-        for (Book book : books) {
-            if (book.getTitle().equals(title) && book.getAuthor().equals(author)) {
-                selectedBook = book;
-                break;
-            }
-        }
+        // Fetch the selected book by id
+        Book selectedBook = dbManager.getBookById(rowBookIds.get(selectedRow));
 
         if (selectedBook == null) {
             return;
@@ -1,7 +1,8 @@
 package com.bookexchange.ui;
 
-import com.bookexchange.db.DatabaseManager;
+import com.bookexchange.db.AsyncDatabaseManager;
 import com.bookexchange.model.Book;
+import com.bookexchange.model.SystemStats;
 import com.bookexchange.model.User;
 
 import javax.swing.*;
@@ -10,9 +11,10 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class ReportsPanel extends JPanel {
-    private DatabaseManager dbManager;
+    private AsyncDatabaseManager dbManager;
     private JTabbedPane reportsTabbedPane;
     private JTable mostExchangedBooksTable;
     private DefaultTableModel mostExchangedBooksModel;
@@ -21,7 +23,7 @@ public class ReportsPanel extends JPanel {
     private JPanel statsPanel;
     private JButton refreshButton;
 
-    public ReportsPanel(DatabaseManager dbManager) {
+    public ReportsPanel(AsyncDatabaseManager dbManager) {
         this.dbManager = dbManager;
 
         setLayout(new BorderLayout(10, 10));
@@ -113,24 +115,32 @@ public class ReportsPanel extends JPanel {
         return panel;
     }
 
+    // The three reports load in parallel off the event thread; each fills its tab when it arrives
     private void loadReports() {
-        // Load most exchanged books
-        loadMostExchangedBooks();
-
-        // Load most active users
-        loadMostActiveUsers();
-
-        // Load statistics
-        loadStats();
+        refreshButton.setEnabled(false);
+
+        CompletableFuture<Void> books = dbManager.getMostExchangedBooks(10)
+                .thenAccept(result -> SwingUtilities.invokeLater(() -> showMostExchangedBooks(result)));
+        CompletableFuture<Void> users = dbManager.getMostActiveUsers(10)
+                .thenAccept(result -> SwingUtilities.invokeLater(() -> showMostActiveUsers(result)));
+        CompletableFuture<Void> stats = dbManager.getSystemStats()
+                .thenAccept(result -> SwingUtilities.invokeLater(() -> showStats(result)));
+
+        CompletableFuture.allOf(books, users, stats).whenComplete((ignored, error) ->
+                SwingUtilities.invokeLater(() -> {
+                    refreshButton.setEnabled(true);
+                    if (error != null) {
+                        System.err.println("Error loading reports: " + error.getMessage());
+                        JOptionPane.showMessageDialog(this, "Raporlar yüklenirken hata oluştu",
+                                "Hata", JOptionPane.ERROR_MESSAGE);
+                    }
+                }));
     }
 
-    private void loadMostExchangedBooks() {
+    private void showMostExchangedBooks(List<Book> books) {
         // Clear table
         mostExchangedBooksModel.setRowCount(0);
 
-        // Get most exchanged books
-        List<Book> books = dbManager.getMostExchangedBooks(10);
-
         // Add books to table
         for (Book book : books) {
             Object[] row = {
@@ -143,13 +153,10 @@ public class ReportsPanel extends JPanel {
         }
     }
 
-    private void loadMostActiveUsers() {
+    private void showMostActiveUsers(List<User> users) {
         // Clear table
         mostActiveUsersModel.setRowCount(0);
 
-        // Get most active users
-        List<User> users = dbManager.getMostActiveUsers(10);
-
         // Add users to table
         for (User user : users) {
             Object[] row = {
@@ -161,14 +168,13 @@ public class ReportsPanel extends JPanel {
         }
     }
 
-    private void loadStats() {
+    private void showStats(SystemStats stats) {
         // Clear panel
         statsPanel.removeAll();
 
-        // Get statistics
-        int totalBooks = dbManager.getTotalBooks();
-        int totalUsers = dbManager.getTotalUsers();
-        int totalExchanges = dbManager.getTotalExchanges();
+        int totalBooks = stats.getTotalBooks();
+        int totalUsers = stats.getTotalUsers();
+        int totalExchanges = stats.getTotalExchanges();
 
         // Add statistics to panel
         statsPanel.add(new JLabel("Toplam Kitap Sayısı:"));
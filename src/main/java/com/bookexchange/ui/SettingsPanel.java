@@ -34,7 +34,7 @@ public class SettingsPanel extends JPanel {
         formPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
         JLabel dbTypeLabel = new JLabel("Veritabanı Türü:");
-        dbTypeCombo = new JComboBox<>(new String[]{"mysql", "mongodb"});
+        dbTypeCombo = new JComboBox<>(new String[]{"mysql", "mongodb", "memory", "embedded"});
 
         JLabel hostLabel = new JLabel("Host:");
         hostField = new JTextField(20);